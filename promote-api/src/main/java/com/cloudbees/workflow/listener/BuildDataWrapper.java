@@ -6,7 +6,6 @@ import com.google.common.collect.Lists;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
@@ -28,9 +27,7 @@ public class BuildDataWrapper {
     public List<Revision> revisions() {
         List<Revision> revisions = Lists.newArrayList();
         try {
-            Field buildField = ReflectUtil.field(buildData.getClass(), "buildsByBranchName");
-            buildField.setAccessible(true);
-            Map current = (Map) buildField.get(buildData);
+            Map current = (Map) ReflectUtil.get(buildData, "buildsByBranchName");
             for (Object value : current.values()) {
                 String message = value.toString();
                 Matcher matcher = REVISION_PATTERN.matcher(message);
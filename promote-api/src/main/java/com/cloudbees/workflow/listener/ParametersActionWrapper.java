@@ -8,7 +8,6 @@ import hudson.model.StringParameterValue;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Objects;
 import java.util.Set;
@@ -38,9 +37,7 @@ public class ParametersActionWrapper {
     public void addParameter(ParameterValue parameter) {
         if (action != null) {
             try {
-                Field parametersField = ReflectUtil.field(action.getClass(), "parameters");
-                parametersField.setAccessible(true);
-                List<ParameterValue> current = (List<ParameterValue>) parametersField.get(action);
+                List<ParameterValue> current = (List<ParameterValue>) ReflectUtil.get(action, "parameters");
                 current.add(parameter);
             } catch (Exception e) {
                 logger.error("failed to add parameter", e);
@@ -51,15 +48,11 @@ public class ParametersActionWrapper {
     public void setParameter(String key, String value) {
         if (action != null) {
             try {
-                Field parametersField = ReflectUtil.field(action.getClass(), "parameters");
-                parametersField.setAccessible(true);
-                List<ParameterValue> current = (List<ParameterValue>) parametersField.get(action);
+                List<ParameterValue> current = (List<ParameterValue>) ReflectUtil.get(action, "parameters");
                 for (ParameterValue parameterValue : current) {
                     if (parameterValue instanceof StringParameterValue && Objects.equals(parameterValue.getName(), key)) {
                         StringParameterValue stringParameterValue = (StringParameterValue) parameterValue;
-                        Field valueField = ReflectUtil.field(StringParameterValue.class, "value");
-                        valueField.setAccessible(true);
-                        valueField.set(stringParameterValue, value);
+                        ReflectUtil.set(stringParameterValue, "value", value);
                     }
                 }
             } catch (Exception e) {
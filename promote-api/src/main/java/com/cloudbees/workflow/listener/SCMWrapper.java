@@ -5,7 +5,6 @@ import hudson.scm.SCM;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
 import java.util.List;
 import java.util.Optional;
 
@@ -23,9 +22,7 @@ public class SCMWrapper {
 
     public String branch() {
         try {
-            Field branchesField = ReflectUtil.field(scm.getClass(), "branches");
-            branchesField.setAccessible(true);
-            List branches = ((List) branchesField.get(scm));
+            List branches = (List) ReflectUtil.get(scm, "branches");
             if (!branches.isEmpty()) {
                 return branches.get(0).toString().replaceAll("\\*/", "");
             }
@@ -38,15 +35,11 @@ public class SCMWrapper {
 
     public Optional<String> relativeDirectory() {
         try {
-            Field extensionsField = ReflectUtil.field(scm.getClass(), "extensions");
-            extensionsField.setAccessible(true);
-            List extensions = ((List) extensionsField.get(scm));
+            List extensions = (List) ReflectUtil.get(scm, "extensions");
 
             for (Object extension : extensions) {
                 if (extension.getClass().getSimpleName().equals("RelativeTargetDirectory")) {
-                    Field relativeTargetDirField = ReflectUtil.field(extension.getClass(), "relativeTargetDir");
-                    relativeTargetDirField.setAccessible(true);
-                    return Optional.of((String) relativeTargetDirField.get(extension));
+                    return Optional.of((String) ReflectUtil.get(extension, "relativeTargetDir"));
                 }
             }
             return Optional.empty();
@@ -58,17 +51,11 @@ public class SCMWrapper {
 
     public String scmName() {
         try {
-            Field userRemoteConfigsField = ReflectUtil.field(scm.getClass(), "userRemoteConfigs");
-            userRemoteConfigsField.setAccessible(true);
-            Object userRemoteConfig = ((List) userRemoteConfigsField.get(scm)).get(0);
-            Field nameField = ReflectUtil.field(userRemoteConfig.getClass(), "name");
-            nameField.setAccessible(true);
-            Object name = nameField.get(userRemoteConfig);
+            Object userRemoteConfig = ((List) ReflectUtil.get(scm, "userRemoteConfigs")).get(0);
+            Object name = ReflectUtil.get(userRemoteConfig, "name");
 
             if (name == null) {
-                Field urlField = ReflectUtil.field(userRemoteConfig.getClass(), "url");
-                urlField.setAccessible(true);
-                String url = (String) urlField.get(userRemoteConfig);
+                String url = (String) ReflectUtil.get(userRemoteConfig, "url");
                 return projectName(url);
             }
             return (String) name;
@@ -52,7 +52,6 @@ import org.kohsuke.stapler.StaplerRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import java.lang.reflect.Field;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
@@ -134,9 +133,7 @@ public class PromoteAPI extends AbstractWorkflowRunActionHandler {
     @SuppressWarnings("unchecked")
     private void replaceParameter(ParametersAction action, ParameterValue commit) {
         try {
-            Field parametersField = ReflectUtil.field(action.getClass(), "parameters");
-            parametersField.setAccessible(true);
-            List<ParameterValue> current = (List<ParameterValue>) parametersField.get(action);
+            List<ParameterValue> current = (List<ParameterValue>) ReflectUtil.get(action, "parameters");
             current.add(commit);
         } catch (Exception e) {
             e.printStackTrace();
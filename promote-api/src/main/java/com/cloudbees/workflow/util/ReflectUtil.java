@@ -1,21 +1,118 @@
 package com.cloudbees.workflow.util;
 
+import javax.annotation.CheckForNull;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
 import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
+ * Reads the private state of other plugins' classes. Each (class, field name) is resolved once, misses included,
+ * rather than searching the class hierarchy on every call.
+ *
  * @author chi
  */
 public class ReflectUtil {
+    private static final Accessor MISSING = new Accessor(null);
+
+    private static final ClassValue<ConcurrentMap<String, Accessor>> ACCESSORS = new ClassValue<ConcurrentMap<String, Accessor>>() {
+        @Override
+        protected ConcurrentMap<String, Accessor> computeValue(Class<?> type) {
+            return new ConcurrentHashMap<String, Accessor>();
+        }
+    };
+
+    /** @return the field declared by the type or one of its superclasses, already made accessible */
     public static Field field(Class<?> type, String field) throws NoSuchFieldException {
+        Field found = accessor(type, field).field;
+        if (found == null) {
+            throw new NoSuchFieldException("missing field " + field);
+        }
+        return found;
+    }
+
+    /**
+     * Reads a field declared by the target's class or one of its superclasses.
+     * @throws NoSuchFieldException if there is no such field
+     */
+    @CheckForNull
+    public static Object get(Object target, String field) throws NoSuchFieldException, IllegalAccessException {
+        Accessor accessor = accessor(target.getClass(), field);
+        if (accessor.field == null) {
+            throw new NoSuchFieldException("missing field " + field);
+        }
+        if (accessor.getter == null) {
+            // Could not be made accessible, let reflection report why
+            return accessor.field.get(target);
+        }
+        try {
+            return accessor.getter.invokeExact(target);
+        } catch (RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable t) {
+            throw new IllegalStateException(t);
+        }
+    }
+
+    /**
+     * Writes a field declared by the target's class or one of its superclasses.
+     * @throws NoSuchFieldException if there is no such field
+     */
+    public static void set(Object target, String field, Object value) throws NoSuchFieldException, IllegalAccessException {
+        // Rare enough that a cached Field will do
+        field(target.getClass(), field).set(target, value);
+    }
+
+    private static Accessor accessor(Class<?> type, String field) {
+        ConcurrentMap<String, Accessor> accessors = ACCESSORS.get(type);
+        Accessor accessor = accessors.get(field);
+        if (accessor == null) {
+            accessor = resolve(type, field);
+            Accessor raced = accessors.putIfAbsent(field, accessor);
+            if (raced != null) {
+                accessor = raced;
+            }
+        }
+        return accessor;
+    }
+
+    private static Accessor resolve(Class<?> type, String field) {
         Class<?> current = type;
         while (current != null) {
             for (Field declaredField : current.getDeclaredFields()) {
                 if (declaredField.getName().equals(field)) {
-                    return declaredField;
+                    return new Accessor(declaredField);
                 }
             }
             current = current.getSuperclass();
         }
-        throw new NoSuchFieldException("missing field " + field);
+        return MISSING;
+    }
+
+    private static final class Accessor {
+        final Field field;
+        /** Takes the target as an {@link Object} and returns the value as one, so it can be called with invokeExact */
+        final MethodHandle getter;
+
+        Accessor(Field field) {
+            this.field = field;
+            MethodHandle getter = null;
+            if (field != null) {
+                try {
+                    field.setAccessible(true);
+                    getter = MethodHandles.lookup().unreflectGetter(field);
+                    if (Modifier.isStatic(field.getModifiers())) {
+                        getter = MethodHandles.dropArguments(getter, 0, Object.class);
+                    }
+                    getter = getter.asType(MethodType.methodType(Object.class, Object.class));
+                } catch (IllegalAccessException | RuntimeException e) {
+                    getter = null;
+                }
+            }
+            this.getter = getter;
+        }
     }
 }
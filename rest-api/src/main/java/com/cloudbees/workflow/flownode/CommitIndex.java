@@ -0,0 +1,156 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import hudson.util.AtomicFileWriter;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Which repository each commit of a run's checkouts came from, as commit id to repository URL.
+ * <p>
+ * The commit ids of each changelog are found by one streaming scan and persisted next to it as
+ * {@code <changelog>.commits}, one id per line, so that later lookups - even after a restart - do not
+ * read the changelog again. The index of a completed run no longer changes, so it is also kept in memory
+ * until evicted; that of a running build is rebuilt from the persisted files on each call, as it may gain checkouts.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class CommitIndex {
+
+    private static final Logger LOGGER = Logger.getLogger(CommitIndex.class.getName());
+
+    static final int MAX_SIZE = Integer.getInteger(CommitIndex.class.getName() + ".maxSize", 1000);
+
+    static final String SUFFIX = ".commits";
+
+    private static final String COMMIT_PREFIX = "commit ";
+
+    private static final Cache<String, Map<String, String>> COMPLETED = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+
+    private CommitIndex() {
+    }
+
+    /**
+     * The index of the run, computed at most once per completed run.
+     * @param compute Builds the index, typically from {@link #commitIds} of each checkout's changelog
+     * @return Unmodifiable commit id to repository URL
+     */
+    @Nonnull
+    public static Map<String, String> get(@Nonnull WorkflowRun run, @Nonnull final Callable<Map<String, String>> compute) {
+        try {
+            if (run.isBuilding()) {
+                return Collections.unmodifiableMap(compute.call());
+            }
+            return COMPLETED.get(run.getExternalizableId(), new Callable<Map<String, String>>() {
+                @Override
+                public Map<String, String> call() throws Exception {
+                    return Collections.unmodifiableMap(compute.call());
+                }
+            });
+        } catch (Exception e) {
+            if (e instanceof ExecutionException || e instanceof UncheckedExecutionException) {
+                LOGGER.log(Level.FINE, "Unable to index the commits of " + run.getExternalizableId(), e.getCause());
+            } else {
+                LOGGER.log(Level.FINE, "Unable to index the commits of " + run.getExternalizableId(), e);
+            }
+            return Collections.emptyMap();
+        }
+    }
+
+    /** The ids of the commits in a changelog, from its persisted index if that is at least as recent as the changelog */
+    @Nonnull
+    public static List<String> commitIds(@Nonnull File changelog) throws IOException {
+        File index = new File(changelog.getPath() + SUFFIX);
+        if (index.isFile() && index.lastModified() >= changelog.lastModified()) {
+            try {
+                return Files.readAllLines(index.toPath(), StandardCharsets.UTF_8);
+            } catch (IOException e) {
+                LOGGER.log(Level.FINE, "Unable to read " + index + ", rescanning the changelog", e);
+            }
+        }
+
+        List<String> commitIds = scan(changelog);
+        try {
+            write(index, commitIds);
+        } catch (IOException e) {
+            // Only costs a rescan next time
+            LOGGER.log(Level.FINE, "Unable to write " + index, e);
+        }
+        return commitIds;
+    }
+
+    /** Keeps the ids of the {@code commit <id>} lines, a line at a time */
+    static List<String> scan(@Nonnull File changelog) throws IOException {
+        List<String> commitIds = new ArrayList<>();
+        try (BufferedReader reader = Files.newBufferedReader(changelog.toPath(), StandardCharsets.UTF_8)) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(COMMIT_PREFIX)) {
+                    commitIds.add(line.substring(COMMIT_PREFIX.length()).trim());
+                }
+            }
+        }
+        return commitIds;
+    }
+
+    private static void write(File index, List<String> commitIds) throws IOException {
+        AtomicFileWriter writer = new AtomicFileWriter(index.toPath(), StandardCharsets.UTF_8);
+        try {
+            for (String commitId : commitIds) {
+                writer.write(commitId);
+                writer.write('\n');
+            }
+            writer.commit();
+        } finally {
+            writer.abort();
+        }
+    }
+
+    /** Drop the indexes of all runs whose externalizable id starts with the prefix, e.g. of a deleted job */
+    public static void invalidatePrefix(@Nonnull final String prefix) {
+        COMPLETED.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+    }
+}
@@ -1,4 +1,3 @@
-
 /*
  * The MIT License
  *
@@ -27,12 +26,17 @@ package com.cloudbees.workflow.flownode;
 import com.cloudbees.workflow.rest.external.RunExt;
 import com.cloudbees.workflow.rest.external.StageNodeExt;
 import com.cloudbees.workflow.rest.external.StatusExt;
+import com.google.common.base.Function;
 import com.google.common.base.Predicate;
 import com.google.common.cache.Cache;
 import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.collect.Lists;
 import hudson.Extension;
 import hudson.ExtensionPoint;
 import hudson.model.Item;
+import hudson.model.ItemGroup;
 import hudson.model.Queue;
 import hudson.model.listeners.ItemListener;
 import jenkins.model.Jenkins;
@@ -56,7 +60,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
-import java.util.concurrent.ConcurrentMap;
+import java.util.Map;
 
 /**
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
@@ -73,19 +77,71 @@ public class FlowNodeUtil {
     // Used in testing where Jenkins is not running yet
     private static final List<CacheExtension> FALLBACK_CACHES = Arrays.asList(new CacheExtension());
 
+    /** Heap budget for the run cache, in MB. Runs are weighed by their estimated retained size, not counted. */
+    static final long RUN_CACHE_MAX_WEIGHT_MB = Long.getLong(FlowNodeUtil.class.getName() + ".runCacheMaxWeightMB", 128L);
+
     @Extension
     @Restricted(NoExternalUse.class)
     public static class CacheExtension extends CacheExtensionPoint {
 
+        private final RunKeyIndex runKeys = new RunKeyIndex();
+
+        private final RunJsonCache runJson = new RunJsonCache();
+
+        private final RunExtWeigher weigher = new RunExtWeigher();
+
         // Larger cache of run data, for completed runs, keyed by flowexecution url, useful for serving info
         // Actually can be used to serve Stage data too
         // Because the RunExt caps the total elements returned, and this is fully realized, this is the fastest way
-        protected final Cache<String, RunExt> runData = CacheBuilder.newBuilder().maximumSize(1000).build();
+        // Bounded by estimated heap use because a 3-stage run and a 200-stage parallel run differ by orders of magnitude
+        protected final Cache<String, RunExt> runData = runKeys.wrap(CacheBuilder.newBuilder()
+                .maximumWeight(RUN_CACHE_MAX_WEIGHT_MB * 1024L * 1024L)
+                .weigher(weigher)
+                .removalListener(new RemovalListener<String, RunExt>() {
+                    @Override
+                    public void onRemoval(RemovalNotification<String, RunExt> notification) {
+                        runKeys.onRemoval(notification);
+                        // Even when replaced, the JSON came from the previous value
+                        if (notification.getKey() != null) {
+                            runJson.invalidate(notification.getKey());
+                        }
+                    }
+                })
+                .<String, RunExt>build());
 
         public Cache<String, RunExt> getRunCache() {
             return this.runData;
         }
 
+        /** Serialized JSON of the cached runs. */
+        public RunJsonCache getRunJsonCache() {
+            return this.runJson;
+        }
+
+        /** Max estimated size of the run cache in bytes. */
+        public long getMaxWeight() {
+            return RUN_CACHE_MAX_WEIGHT_MB * 1024L * 1024L;
+        }
+
+        /** Current estimated size of the run cache in bytes, computed on demand, as weighed by the cache itself. */
+        public long getWeight() {
+            long weight = 0;
+            for (Map.Entry<String, RunExt> entry : runData.asMap().entrySet()) {
+                weight += weigher.weigh(entry.getKey(), entry.getValue());
+            }
+            return weight;
+        }
+
+        /** Drop the cached runs of a job. */
+        public void invalidateJob(@Nonnull String jobFullName) {
+            runData.invalidateAll(runKeys.getJobKeys(jobFullName));
+        }
+
+        /** Drop the cached runs of all jobs inside a folder, at any depth. */
+        public void invalidateFolder(@Nonnull String folderFullName) {
+            runData.invalidateAll(runKeys.getFolderKeys(folderFullName));
+        }
+
         public static List<CacheExtension> all() {
             Jenkins myJenkins = Jenkins.getInstance();
             if ( myJenkins == null) {
@@ -105,8 +161,15 @@ public class FlowNodeUtil {
         return null;
     }
 
+    /** Same as {@link #getCachedRun}, but not counted as a cache hit or miss: for checks that do not serve the run */
+    @CheckForNull
+    public static RunExt peekCachedRun(@Nonnull WorkflowRun run) {
+        return CacheExtension.all().get(0).getRunCache().asMap().get(run.getExternalizableId());
+    }
+
     public static void cacheRun(WorkflowRun run, RunExt runExt) {
         if (!run.isBuilding()) {
+            StringPool.intern(runExt);
             CacheExtension.all().get(0).getRunCache().put(run.getExternalizableId(), runExt);
         }
     }
@@ -147,6 +210,20 @@ public class FlowNodeUtil {
             // Can't parse iota as number, fall back to looking for parent
         }
 
+        // Look it up in the index of the graph's edges, built once per execution
+        if (iota > 0) {
+            int successor = SuccessorIndex.of(exec).getFirstSuccessor(exec, iota);
+            if (successor == SuccessorIndex.NONE) {
+                return null;
+            } else if (successor != SuccessorIndex.UNKNOWN) {
+                try {
+                    return exec.getNode(Integer.toString(successor));
+                } catch (IOException ioe) {
+                    // Indexed but not loadable, should not happen: scan for it instead
+                }
+            }
+        }
+
         // Find node after this one, scanning everything until this one
         final FlowNode after = new ForkScanner().findFirstMatch(node.getExecution().getCurrentHeads(), Collections.singletonList(node), new Predicate<FlowNode>() {
             public boolean apply(@Nonnull FlowNode f) {
@@ -229,7 +306,7 @@ public class FlowNodeUtil {
     @Nonnull
     public static List<FlowNode> getStageNodes(@CheckForNull FlowNode stageNode) {
         if (stageNode == null) { return Collections.emptyList(); }
-        FlowExecution exec = stageNode.getExecution();
+        final FlowExecution exec = stageNode.getExecution();
         WorkflowRun run = getWorkflowRunForExecution(exec);
         if (run == null) { return Collections.emptyList(); }
         RunExt runExt = RunExt.create(run);
@@ -243,16 +320,19 @@ public class FlowNodeUtil {
             }
         }
 
-        try {
-            if (childIds == null) { return Collections.emptyList(); }
-            List<FlowNode> nodes = new ArrayList<FlowNode>(childIds.size());
-            for (String s : childIds) {
-                nodes.add(exec.getNode(s));
+        if (childIds == null) { return Collections.emptyList(); }
+
+        // Nodes are only loaded as they are read, long stages may have thousands
+        return Lists.transform(childIds, new Function<String, FlowNode>() {
+            @Override
+            public FlowNode apply(String id) {
+                try {
+                    return exec.getNode(id);
+                } catch (IOException ioe) {
+                    throw new RuntimeException("Failed to load a FlowNode, even though run exists! ", ioe);
+                }
             }
-            return nodes;
-        } catch (IOException ioe) {
-            throw new RuntimeException("Failed to load a FlowNode, even though run exists! ", ioe);
-        }
+        });
     }
 
     /** This is used to cover an obscure case where a WorkflowJob is renamed BUT
@@ -263,32 +343,36 @@ public class FlowNodeUtil {
     public static class RenameHandler extends ItemListener {
 
         /** Removes all cache entries, because the pipeline has been deleted/renamed.
-         *  Works by scanning the cache -- which is faster than iterating all builds because
-         *  it does not require deserializing build records, and cache is capped at 1000 entries.
+         *  Uses the index of cached runs by job, so it only touches the entries of that job.
          */
         private void removeCachedRuns(String pipelineFullName) {
-            String runPrefix = pipelineFullName+"#"; // See Run#getExternalizableId - this is hardcoded
-            CacheExtension ext = CacheExtension.all().get(0);
-            Cache<String, RunExt> rc = ext.getRunCache();
-            ConcurrentMap<String, RunExt> runMap = rc.asMap();
-            for (String cacheRunId : runMap.keySet()) {  // Put the Concurrent in ConcurrentMap to work for us
-                // Null-check may not be needed, but just in case of mutation by another thread
-                if (cacheRunId != null && cacheRunId.startsWith(runPrefix)) {
-                    runMap.remove(cacheRunId); // Map view writes through modifications
-                }
-            }
+            CacheExtension.all().get(0).invalidateJob(pipelineFullName);
+            RunEnvironmentCache.invalidatePrefix(pipelineFullName + '#');
+            CommitIndex.invalidatePrefix(pipelineFullName + '#');
+        }
+
+        /** Same, for all pipelines in a folder that has been deleted/moved. */
+        private void removeCachedFolderRuns(String folderFullName) {
+            CacheExtension.all().get(0).invalidateFolder(folderFullName);
+            RunEnvironmentCache.invalidatePrefix(folderFullName + '/');
+            CommitIndex.invalidatePrefix(folderFullName + '/');
         }
 
         @Override
         public void onLocationChanged(Item item, String oldFullName, String newFullName) {
             // We need to invalidate cache entries because all the URLs within the run will have changed, such as for logs
             removeCachedRuns(oldFullName);
+            if (item instanceof ItemGroup) {
+                removeCachedFolderRuns(oldFullName);
+            }
         }
 
         @Override
         public void onDeleted(Item item) {
             if (item instanceof WorkflowJob) {
                 removeCachedRuns(item.getFullName());
+            } else if (item instanceof ItemGroup) {
+                removeCachedFolderRuns(item.getFullName());
             }
         }
     }
@@ -0,0 +1,173 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.google.common.cache.CacheStats;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Exposes the state of {@link FlowNodeUtil.CacheExtension} over JMX, and as JSON at {@code wfapi/cacheStats}.
+ * Always reads through to the current cache extension, so it survives Jenkins being restarted in the same JVM.
+ */
+@Restricted(NoExternalUse.class)
+public class RunCacheStats implements RunCacheStatsMBean {
+
+    private static final Logger LOGGER = Logger.getLogger(RunCacheStats.class.getName());
+
+    public static final String OBJECT_NAME = "com.cloudbees.workflow:type=RunCache";
+
+    /** Time taken by {@link com.cloudbees.workflow.rest.external.RunExt#createNew}, i.e. actual graph walks */
+    public static final ComputeTimeHistogram COMPUTE_TIMES = new ComputeTimeHistogram();
+
+    private static FlowNodeUtil.CacheExtension cache() {
+        return FlowNodeUtil.CacheExtension.all().get(0);
+    }
+
+    @Override
+    public long getSize() {
+        return cache().getRunCache().size();
+    }
+
+    @Override
+    public long getWeight() {
+        return cache().getWeight();
+    }
+
+    @Override
+    public long getMaxWeight() {
+        return cache().getMaxWeight();
+    }
+
+    // Guava 11 (bundled by core) always records stats, there is no recordStats() to enable
+    private static CacheStats stats() {
+        return cache().getRunCache().stats();
+    }
+
+    @Override
+    public long getHitCount() {
+        return stats().hitCount();
+    }
+
+    @Override
+    public long getMissCount() {
+        return stats().missCount();
+    }
+
+    @Override
+    public double getHitRate() {
+        return stats().hitRate();
+    }
+
+    @Override
+    public double getMissRate() {
+        return stats().missRate();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        return stats().evictionCount();
+    }
+
+    @Override
+    public double getAverageComputeMillis() {
+        return COMPUTE_TIMES.getAverageMillis();
+    }
+
+    @Override
+    public long getMaxComputeMillis() {
+        return COMPUTE_TIMES.getMaxMillis();
+    }
+
+    @Override
+    @JsonIgnore
+    public String[] getComputeTimeBuckets() {
+        return ComputeTimeHistogram.getBucketLabels();
+    }
+
+    @Override
+    @JsonIgnore
+    public long[] getComputeTimeBucketCounts() {
+        return COMPUTE_TIMES.getBucketCounts();
+    }
+
+    /** Same as the buckets and their counts, for JSON */
+    public Map<String, Long> getComputeTimeHistogram() {
+        return COMPUTE_TIMES.getBuckets();
+    }
+
+    @Override
+    public long getComputedCount() {
+        return RunExtSingleFlight.getComputedCount();
+    }
+
+    @Override
+    public long getCoalescedCount() {
+        return RunExtSingleFlight.getCoalescedCount();
+    }
+
+    @Override
+    public int getInFlightCount() {
+        return RunExtSingleFlight.getInFlightCount();
+    }
+
+    @Override
+    public long getStringPoolLookupCount() {
+        return StringPool.getLookupCount();
+    }
+
+    @Override
+    public long getStringPoolDuplicateCount() {
+        return StringPool.getDuplicateCount();
+    }
+
+    @Override
+    public long getStringPoolSavedBytes() {
+        return StringPool.getSavedBytes(cache().getRunCache().asMap().values());
+    }
+
+    @Initializer(after = InitMilestone.EXTENSIONS_AUGMENTED)
+    public static void register() {
+        try {
+            MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            ObjectName name = new ObjectName(OBJECT_NAME);
+            if (!server.isRegistered(name)) {
+                server.registerMBean(new RunCacheStats(), name);
+            }
+        } catch (JMException | RuntimeException e) {
+            LOGGER.log(Level.WARNING, "Unable to register run cache MBean", e);
+        }
+    }
+}
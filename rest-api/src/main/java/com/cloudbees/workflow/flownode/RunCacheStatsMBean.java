@@ -0,0 +1,81 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+/**
+ * JMX view of the run cache, registered as {@value RunCacheStats#OBJECT_NAME}.
+ */
+public interface RunCacheStatsMBean {
+
+    /** Number of cached runs */
+    long getSize();
+
+    /** Estimated retained size of all cached runs, in bytes */
+    long getWeight();
+
+    /** Heap budget of the cache, in bytes */
+    long getMaxWeight();
+
+    /** Cache lookups that found the run */
+    long getHitCount();
+
+    /** Cache lookups that did not find the run */
+    long getMissCount();
+
+    double getHitRate();
+
+    double getMissRate();
+
+    /** Runs dropped from the cache to stay within its heap budget */
+    long getEvictionCount();
+
+    /** Average time to compute a run from the flow graph, in milliseconds */
+    double getAverageComputeMillis();
+
+    long getMaxComputeMillis();
+
+    /** Labels of the compute time histogram buckets */
+    String[] getComputeTimeBuckets();
+
+    /** Number of run computations in each bucket of {@link #getComputeTimeBuckets()} */
+    long[] getComputeTimeBucketCounts();
+
+    /** Number of run computations actually performed */
+    long getComputedCount();
+
+    /** Number of requests that waited on a computation of the same run by another request, instead of running their own */
+    long getCoalescedCount();
+
+    /** Number of run computations in progress */
+    int getInFlightCount();
+
+    /** Number of strings of cached stages and nodes looked up in the string pool, since startup */
+    long getStringPoolLookupCount();
+
+    /** Number of those that duplicated a pooled string, and were replaced by it */
+    long getStringPoolDuplicateCount();
+
+    /** Estimated heap the cached runs do not retain thanks to the string pool, in bytes */
+    long getStringPoolSavedBytes();
+}
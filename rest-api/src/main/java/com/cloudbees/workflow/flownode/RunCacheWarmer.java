@@ -0,0 +1,244 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.JobExt;
+import com.cloudbees.workflow.rest.external.RunExt;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import jenkins.model.Jenkins;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Fills the run cache after startup with the last {@link JobExt#MAX_RUNS_PER_JOB} completed runs of every
+ * pipeline job, i.e. what the stage view of each job would show.
+ * <p>
+ * Opt-in, by setting System Property {@code com.cloudbees.workflow.flownode.RunCacheWarmer.enabled} to 'true'.
+ * Runs on a few minimum priority threads ({@code .threads}, default 1), and starts at most {@code .runsPerSecond}
+ * computations per second (default 5, 0 for no limit) so it does not compete with builds. Runs already cached
+ * or persisted as snapshots are cheap and just loaded.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class RunCacheWarmer {
+
+    private static final Logger LOGGER = Logger.getLogger(RunCacheWarmer.class.getName());
+
+    static final boolean ENABLED = Boolean.getBoolean(RunCacheWarmer.class.getName() + ".enabled");
+
+    static final int THREADS = Math.max(1, Integer.getInteger(RunCacheWarmer.class.getName() + ".threads", 1));
+
+    static final int RUNS_PER_SECOND = Integer.getInteger(RunCacheWarmer.class.getName() + ".runsPerSecond", 5);
+
+    public enum State {
+        DISABLED, NOT_STARTED, RUNNING, DONE
+    }
+
+    private static final Status STATUS = new Status();
+
+    private RunCacheWarmer() {
+    }
+
+    /** Progress of the warm-up, served as JSON. */
+    public static class Status {
+        private volatile State state = ENABLED ? State.NOT_STARTED : State.DISABLED;
+        private volatile long startTimeMillis;
+        private volatile long endTimeMillis;
+        private final AtomicInteger jobsScanned = new AtomicInteger();
+        private final AtomicInteger runsQueued = new AtomicInteger();
+        private final AtomicInteger runsWarmed = new AtomicInteger();
+        private final AtomicInteger runsFailed = new AtomicInteger();
+        private final AtomicLong computeMillis = new AtomicLong();
+
+        public State getState() {
+            return state;
+        }
+
+        public long getStartTimeMillis() {
+            return startTimeMillis;
+        }
+
+        public long getEndTimeMillis() {
+            return endTimeMillis;
+        }
+
+        /** Elapsed time, up to now if still running */
+        public long getDurationMillis() {
+            if (startTimeMillis == 0) {
+                return 0;
+            }
+            return ((endTimeMillis != 0) ? endTimeMillis : System.currentTimeMillis()) - startTimeMillis;
+        }
+
+        public int getJobsScanned() {
+            return jobsScanned.get();
+        }
+
+        public int getRunsQueued() {
+            return runsQueued.get();
+        }
+
+        public int getRunsWarmed() {
+            return runsWarmed.get();
+        }
+
+        public int getRunsFailed() {
+            return runsFailed.get();
+        }
+
+        /** Total time spent in {@link RunExt#create(WorkflowRun)}, across all threads */
+        public long getComputeMillis() {
+            return computeMillis.get();
+        }
+
+        public int getThreads() {
+            return THREADS;
+        }
+
+        public int getRunsPerSecond() {
+            return RUNS_PER_SECOND;
+        }
+    }
+
+    public static Status getStatus() {
+        return STATUS;
+    }
+
+    @Initializer(after = InitMilestone.JOB_LOADED)
+    public static void start() {
+        if (!ENABLED || STATUS.state != State.NOT_STARTED) {
+            return;
+        }
+        STATUS.state = State.RUNNING;
+        STATUS.startTimeMillis = System.currentTimeMillis();
+
+        ThreadFactory threads = new NamingThreadFactory(new LowPriorityThreadFactory(), "RunCacheWarmer");
+        final ThreadPoolExecutor executor = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(THREADS * 2), threads, new ThreadPoolExecutor.CallerRunsPolicy());
+        executor.allowCoreThreadTimeOut(true);
+
+        // Walking the jobs loads build records, keep that off the initialization thread too
+        threads.newThread(new Runnable() {
+            @Override
+            public void run() {
+                try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                    warmUp(executor);
+                    executor.shutdown();
+                    executor.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
+                } catch (InterruptedException ie) {
+                    executor.shutdownNow();
+                } catch (RuntimeException e) {
+                    LOGGER.log(Level.WARNING, "Run cache warm-up failed", e);
+                    executor.shutdownNow();
+                } finally {
+                    STATUS.endTimeMillis = System.currentTimeMillis();
+                    STATUS.state = State.DONE;
+                    LOGGER.log(Level.INFO, "Run cache warm-up done: {0} runs of {1} jobs in {2}ms",
+                            new Object[]{STATUS.getRunsWarmed(), STATUS.getJobsScanned(), STATUS.getDurationMillis()});
+                }
+            }
+        }).start();
+    }
+
+    private static void warmUp(ThreadPoolExecutor executor) throws InterruptedException {
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        if (jenkins == null) {
+            return;
+        }
+        long intervalNanos = (RUNS_PER_SECOND > 0) ? TimeUnit.SECONDS.toNanos(1) / RUNS_PER_SECOND : 0;
+        long nextStart = System.nanoTime();
+
+        for (WorkflowJob job : jenkins.getAllItems(WorkflowJob.class)) {
+            STATUS.jobsScanned.incrementAndGet();
+            int count = 0;
+            for (WorkflowRun run : job.getBuilds()) {
+                if (count >= JobExt.MAX_RUNS_PER_JOB) {
+                    break;
+                }
+                if (run.isBuilding()) {
+                    continue;
+                }
+                count++;
+
+                long wait = nextStart - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                nextStart = Math.max(nextStart, System.nanoTime()) + intervalNanos;
+
+                STATUS.runsQueued.incrementAndGet();
+                executor.execute(new WarmRun(run));
+            }
+        }
+    }
+
+    private static class WarmRun implements Runnable {
+        private final WorkflowRun run;
+
+        WarmRun(WorkflowRun run) {
+            this.run = run;
+        }
+
+        @Override
+        public void run() {
+            long start = System.currentTimeMillis();
+            try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+                RunExt.create(run);
+                STATUS.runsWarmed.incrementAndGet();
+            } catch (RuntimeException e) {
+                STATUS.runsFailed.incrementAndGet();
+                LOGGER.log(Level.FINE, "Unable to warm up " + run.getExternalizableId(), e);
+            } finally {
+                STATUS.computeMillis.addAndGet(System.currentTimeMillis() - start);
+            }
+        }
+    }
+
+    private static class LowPriorityThreadFactory implements ThreadFactory {
+        private final ThreadFactory delegate = new DaemonThreadFactory();
+
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread t = delegate.newThread(r);
+            t.setPriority(Thread.MIN_PRIORITY);
+            return t;
+        }
+    }
+}
@@ -0,0 +1,102 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.util.concurrent.UncheckedExecutionException;
+import hudson.EnvVars;
+import hudson.util.LogTaskListener;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+
+/**
+ * Memoized {@link WorkflowRun#getEnvironment} of runs, keyed by externalizable id and shared by all requests.
+ * <p>
+ * Computing the environment runs every {@link hudson.model.EnvironmentContributor}, which may read from disk,
+ * and listing runs needs the environment of each listed run several times over. The environment of a completed
+ * run no longer changes, so it is kept until evicted; that of a running build only for a few seconds.
+ * </p>
+ * Callers get their own copy.
+ */
+@Restricted(NoExternalUse.class)
+public final class RunEnvironmentCache {
+
+    static final int MAX_SIZE = Integer.getInteger(RunEnvironmentCache.class.getName() + ".maxSize", 1000);
+
+    static final long RUNNING_TTL_SECONDS = Long.getLong(RunEnvironmentCache.class.getName() + ".runningTtlSeconds", 10L);
+
+    private static final Cache<String, EnvVars> COMPLETED = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .build();
+
+    private static final Cache<String, EnvVars> RUNNING = CacheBuilder.newBuilder()
+            .maximumSize(MAX_SIZE)
+            .expireAfterWrite(RUNNING_TTL_SECONDS, TimeUnit.SECONDS)
+            .build();
+
+    private RunEnvironmentCache() {
+    }
+
+    /** Same as {@link WorkflowRun#getEnvironment(hudson.model.TaskListener)}, computed at most once per run */
+    @Nonnull
+    public static EnvVars get(@Nonnull final WorkflowRun run) throws IOException, InterruptedException {
+        Cache<String, EnvVars> cache = run.isBuilding() ? RUNNING : COMPLETED;
+        try {
+            EnvVars environment = cache.get(run.getExternalizableId(), new Callable<EnvVars>() {
+                @Override
+                public EnvVars call() throws IOException, InterruptedException {
+                    return run.getEnvironment(new LogTaskListener(null, Level.INFO));
+                }
+            });
+            return new EnvVars(environment);
+        } catch (ExecutionException | UncheckedExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Unable to compute the environment of " + run.getExternalizableId(), cause);
+        }
+    }
+
+    /** Drop the environments of all runs whose externalizable id starts with the prefix, e.g. of a deleted job */
+    public static void invalidatePrefix(@Nonnull final String prefix) {
+        for (Cache<String, EnvVars> cache : Arrays.asList(COMPLETED, RUNNING)) {
+            cache.asMap().keySet().removeIf(key -> key.startsWith(prefix));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import hudson.Extension;
+import hudson.model.listeners.RunListener;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Computes, caches and persists the final {@link RunExt} as soon as a run is finalized, so the first viewer of the
+ * newest build does not pay for the graph walk.
+ * <p>
+ * Work runs on a small bounded pool; if it is saturated (e.g. many builds finishing at once) the run is simply
+ * left to be computed lazily on the first request, as before.
+ * </p>
+ * Can be disabled by setting System Property
+ * {@code com.cloudbees.workflow.flownode.RunExtPrecomputer.enabled} to 'false'.
+ */
+@Extension
+@Restricted(NoExternalUse.class)
+public class RunExtPrecomputer extends RunListener<WorkflowRun> {
+
+    private static final Logger LOGGER = Logger.getLogger(RunExtPrecomputer.class.getName());
+
+    private static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty(RunExtPrecomputer.class.getName() + ".enabled", "true"));
+
+    static final int THREADS = Integer.getInteger(RunExtPrecomputer.class.getName() + ".threads", 2);
+
+    static final int QUEUE_SIZE = Integer.getInteger(RunExtPrecomputer.class.getName() + ".queueSize", 64);
+
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        EXECUTOR = new ThreadPoolExecutor(THREADS, THREADS, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(QUEUE_SIZE),
+                new NamingThreadFactory(new DaemonThreadFactory(), "RunExtPrecomputer"),
+                new ThreadPoolExecutor.DiscardPolicy());
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
+    public RunExtPrecomputer() {
+        super(WorkflowRun.class);
+    }
+
+    /** Once the run is no longer building, so the cached result is final */
+    @Override
+    public void onFinalized(final WorkflowRun run) {
+        if (!ENABLED) {
+            return;
+        }
+        EXECUTOR.execute(new Runnable() {
+            @Override
+            public void run() {
+                precompute(run);
+            }
+        });
+    }
+
+    private static void precompute(WorkflowRun run) {
+        if (run.isBuilding() || !FlowNodeUtil.isNotPartOfRunningBuild(run.getExecution())) {
+            // Not expected once finalized, and a running build would not be cached anyway
+            return;
+        }
+        try (ACLContext ctx = ACL.as(ACL.SYSTEM)) {
+            // Caches and persists the run, sharing the work with any request already computing it
+            RunExt.create(run);
+        } catch (RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to precompute " + run.getExternalizableId(), e);
+        }
+    }
+
+    /** Number of runs waiting to be precomputed */
+    public static int getQueuedCount() {
+        return EXECUTOR.getQueue().size();
+    }
+}
@@ -0,0 +1,120 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Coalesces concurrent {@link RunExt} computations for the same run: the first caller computes, any caller arriving
+ * while that is in progress waits for and shares its result instead of walking the same graph again.
+ * <p>
+ * Keyed by {@link org.jenkinsci.plugins.workflow.job.WorkflowRun#getExternalizableId()}. Nothing is retained once
+ * the computation finishes, caching the result is up to the caller.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class RunExtSingleFlight {
+
+    private static final ConcurrentMap<String, FutureTask<RunExt>> IN_FLIGHT = new ConcurrentHashMap<String, FutureTask<RunExt>>();
+
+    private static final AtomicLong COMPUTED = new AtomicLong();
+    private static final AtomicLong COALESCED = new AtomicLong();
+
+    private RunExtSingleFlight() {
+    }
+
+    /**
+     * Run the computation for the given key, or wait for the one already running.
+     * Exceptions thrown by the computation are rethrown to every caller sharing it.
+     */
+    public static RunExt compute(@Nonnull String key, @Nonnull Callable<RunExt> computation) {
+        FutureTask<RunExt> task = new FutureTask<RunExt>(computation);
+        FutureTask<RunExt> running = IN_FLIGHT.putIfAbsent(key, task);
+        if (running == null) {
+            COMPUTED.incrementAndGet();
+            try {
+                task.run();
+            } finally {
+                IN_FLIGHT.remove(key, task);
+            }
+            return getResult(task, computation);
+        } else {
+            COALESCED.incrementAndGet();
+            return getResult(running, computation);
+        }
+    }
+
+    private static RunExt getResult(FutureTask<RunExt> task, Callable<RunExt> computation) {
+        try {
+            return task.get();
+        } catch (InterruptedException ie) {
+            // Don't leave the request without an answer, just stop sharing
+            Thread.currentThread().interrupt();
+            return call(computation);
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            } else if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw new RuntimeException("Failed to compute run", cause);
+        }
+    }
+
+    private static RunExt call(Callable<RunExt> computation) {
+        try {
+            return computation.call();
+        } catch (RuntimeException re) {
+            throw re;
+        } catch (Exception e) {
+            throw new RuntimeException("Failed to compute run", e);
+        }
+    }
+
+    /** Number of computations actually run */
+    public static long getComputedCount() {
+        return COMPUTED.get();
+    }
+
+    /** Number of requests that shared a computation started by another thread */
+    public static long getCoalescedCount() {
+        return COALESCED.get();
+    }
+
+    /** Number of computations running right now */
+    public static int getInFlightCount() {
+        return IN_FLIGHT.size();
+    }
+}
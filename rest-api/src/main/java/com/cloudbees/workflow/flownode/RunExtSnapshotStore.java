@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.util.JSONReadWrite;
+import com.fasterxml.jackson.databind.DeserializationFeature;
+import com.fasterxml.jackson.databind.ObjectReader;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Persists fully-realized {@link RunExt} instances for completed runs into the build directory, so that
+ * a controller restart does not force a full FlowNode graph walk for every run the stage view lists.
+ * <p>
+ * The snapshot is written once, the first time the completed run is computed, and is read lazily on an
+ * in-memory cache miss. Snapshots with a different {@link #FORMAT_VERSION} or taken under a different
+ * job name (the links embedded in the run would be stale) are discarded and recomputed.
+ * </p>
+ * Can be disabled by setting System Property
+ * {@code com.cloudbees.workflow.flownode.RunExtSnapshotStore.enabled} to 'false'.
+ */
+@Restricted(NoExternalUse.class)
+public class RunExtSnapshotStore {
+
+    private static final Logger LOGGER = Logger.getLogger(RunExtSnapshotStore.class.getName());
+
+    /** Bump whenever the persisted shape of {@link RunExt} or its stages changes incompatibly. */
+    static final int FORMAT_VERSION = 1;
+
+    static final String SNAPSHOT_FILE_NAME = "wfapi-run.json.gz";
+
+    private static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty(RunExtSnapshotStore.class.getName() + ".enabled", "true"));
+
+    // Tolerate fields added or removed between plugin versions that did not bump the format version
+    private static final ObjectReader SNAPSHOT_READER = JSONReadWrite.jsonMapper.readerFor(Snapshot.class)
+            .without(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES);
+
+    private RunExtSnapshotStore() {
+    }
+
+    /** On-disk envelope, the run plus the data that is deliberately hidden from the JSON responses. */
+    public static class Snapshot {
+        public int version;
+        public String externalizableId;
+        public RunExt run;
+        /** Stage id to all child node ids, see {@link StageNodeExt#getAllChildNodeIds()}. */
+        public Map<String, List<String>> stageChildNodeIds;
+    }
+
+    public static boolean isEnabled() {
+        return ENABLED;
+    }
+
+    static File getSnapshotFile(@Nonnull WorkflowRun run) {
+        return new File(run.getRootDir(), SNAPSHOT_FILE_NAME);
+    }
+
+    /**
+     * Load the persisted snapshot of a completed run.
+     * @return The snapshot, or null if there is none or it is unusable.
+     */
+    @CheckForNull
+    public static RunExt load(@Nonnull WorkflowRun run) {
+        if (!ENABLED || run.isBuilding()) {
+            return null;
+        }
+        File file = getSnapshotFile(run);
+        if (!file.isFile()) {
+            return null;
+        }
+        Snapshot snapshot;
+        try (InputStream in = new GZIPInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            snapshot = SNAPSHOT_READER.readValue(in);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Discarding unreadable run snapshot " + file, e);
+            delete(file);
+            return null;
+        }
+
+        if (snapshot == null || snapshot.version != FORMAT_VERSION || snapshot.run == null
+                || !run.getExternalizableId().equals(snapshot.externalizableId)) {
+            delete(file);
+            return null;
+        }
+
+        RunExt runExt = snapshot.run;
+        if (runExt.getStages() != null && snapshot.stageChildNodeIds != null) {
+            for (StageNodeExt stage : runExt.getStages()) {
+                List<String> childIds = snapshot.stageChildNodeIds.get(stage.getId());
+                if (childIds != null) {
+                    stage.setAllChildNodeIds(childIds);
+                }
+            }
+        }
+        return runExt;
+    }
+
+    /**
+     * Persist a completed run, unless a snapshot has already been written.
+     * Failures are logged but never propagated, the snapshot is purely an optimization.
+     */
+    public static void save(@Nonnull WorkflowRun run, @Nonnull RunExt runExt) {
+        if (!ENABLED || run.isBuilding()) {
+            return;
+        }
+        File file = getSnapshotFile(run);
+        if (file.exists()) {
+            return;
+        }
+
+        Snapshot snapshot = new Snapshot();
+        snapshot.version = FORMAT_VERSION;
+        snapshot.externalizableId = run.getExternalizableId();
+        snapshot.run = runExt;
+        snapshot.stageChildNodeIds = new LinkedHashMap<String, List<String>>();
+        if (runExt.getStages() != null) {
+            for (StageNodeExt stage : runExt.getStages()) {
+                snapshot.stageChildNodeIds.put(stage.getId(), stage.getAllChildNodeIds());
+            }
+        }
+
+        File tmp = null;
+        try {
+            tmp = File.createTempFile("wfapi-run", ".tmp", run.getRootDir());
+            try (OutputStream out = new GZIPOutputStream(new BufferedOutputStream(Files.newOutputStream(tmp.toPath())))) {
+                JSONReadWrite.jsonMapper.writeValue(out, snapshot);
+            }
+            // Atomic so that a concurrent reader never sees a partially-written snapshot
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            LOGGER.log(Level.FINE, "Unable to persist run snapshot for " + run.getExternalizableId(), e);
+            if (tmp != null) {
+                delete(tmp);
+            }
+        }
+    }
+
+    private static void delete(File file) {
+        try {
+            Files.deleteIfExists(file.toPath());
+        } catch (IOException ioe) {
+            LOGGER.log(Level.FINE, "Unable to delete run snapshot " + file, ioe);
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
+import com.cloudbees.workflow.rest.external.ChildNodeIds;
+import com.cloudbees.workflow.rest.external.ErrorExt;
+import com.cloudbees.workflow.rest.external.FlowNodeExt;
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.rest.hal.Link;
+import com.cloudbees.workflow.rest.hal.Links;
+import com.google.common.cache.Weigher;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import java.util.List;
+
+/**
+ * Estimates the retained heap size of a cached {@link RunExt}, in bytes.
+ * <p>
+ * This is a deliberately rough estimate (assumes a 64-bit JVM with compressed oops and no string compaction),
+ * it only needs to be proportional to the real footprint so large runs are weighed accordingly.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class RunExtWeigher implements Weigher<String, RunExt> {
+
+    static final int OBJECT_OVERHEAD = 16;
+    static final int REFERENCE_SIZE = 4;
+    static final int LIST_OVERHEAD = 40;
+    static final int ARRAY_OVERHEAD = 16;
+
+    // Fixed fields of the objects, excluding strings and nested objects
+    static final int RUN_SIZE = OBJECT_OVERHEAD + 19 * REFERENCE_SIZE + 5 * 8;
+    static final int NODE_SIZE = OBJECT_OVERHEAD + 8 * REFERENCE_SIZE + 3 * 8;
+    static final int LINK_SIZE = OBJECT_OVERHEAD + REFERENCE_SIZE;
+
+    @Override
+    public int weigh(String key, RunExt run) {
+        long size = estimateSize(key) + estimateSize(run);
+        return (int) Math.min(Integer.MAX_VALUE, size);
+    }
+
+    public static long estimateSize(@CheckForNull RunExt run) {
+        if (run == null) {
+            return 0;
+        }
+        long size = RUN_SIZE;
+        size += estimateSize(run.getId()) + estimateSize(run.getName()) + estimateSize(run.getJobName());
+        size += estimateSize(run.getEnvironment()) + estimateSize(run.getBranch());
+        size += estimateSize(run.getPromoteFromEnvironment()) + estimateSize(run.getPromoteFromVersion());
+        size += estimateSize(run.get_links());
+        if (run.get_links() != null) {
+            RunExt.RunLinks links = run.get_links();
+            size += estimateSize(links.getChangesets()) + estimateSize(links.getArtifacts());
+            size += estimateSize(links.getPendingInputActions()) + estimateSize(links.getNextPendingInputAction());
+        }
+
+        List<StageNodeExt> stages = run.getStages();
+        if (stages != null) {
+            size += LIST_OVERHEAD + stages.size() * REFERENCE_SIZE;
+            for (StageNodeExt stage : stages) {
+                size += estimateSize(stage);
+            }
+        }
+        return size;
+    }
+
+    static long estimateSize(StageNodeExt stage) {
+        long size = estimateNodeSize(stage);
+
+        List<AtomFlowNodeExt> children = stage.getStageFlowNodes();
+        if (children != null) {
+            size += LIST_OVERHEAD + children.size() * REFERENCE_SIZE;
+            for (AtomFlowNodeExt child : children) {
+                size += estimateNodeSize(child);
+                List<String> parents = child.getParentNodes();
+                if (parents != null) {
+                    size += LIST_OVERHEAD + parents.size() * REFERENCE_SIZE;
+                    for (String parent : parents) {
+                        size += estimateSize(parent);
+                    }
+                }
+            }
+        }
+
+        List<String> childIds = stage.getAllChildNodeIds();
+        if (childIds instanceof ChildNodeIds && ((ChildNodeIds) childIds).isCompact()) {
+            // Two ints per run of consecutive ids
+            size += LIST_OVERHEAD + 2 * (ARRAY_OVERHEAD + 4L * ((ChildNodeIds) childIds).getRunCount());
+        } else {
+            size += LIST_OVERHEAD + childIds.size() * REFERENCE_SIZE;
+            for (String id : childIds) {
+                size += estimateSize(id);
+            }
+        }
+        return size;
+    }
+
+    static long estimateNodeSize(FlowNodeExt node) {
+        long size = NODE_SIZE;
+        size += estimateSize(node.getId()) + estimateSize(node.getName()) + estimateSize(node.getExecNode());
+        size += estimateSize(node.getParameterDescription());
+        size += estimateSize(node.get_links());
+        if (node.get_links() != null) {
+            size += estimateSize(node.get_links().getLog());
+        }
+        ErrorExt error = node.getError();
+        if (error != null) {
+            size += OBJECT_OVERHEAD + 2 * REFERENCE_SIZE + estimateSize(error.getMessage()) + estimateSize(error.getType());
+        }
+        return size;
+    }
+
+    static long estimateSize(@CheckForNull Links links) {
+        return (links == null) ? 0 : OBJECT_OVERHEAD + 5 * REFERENCE_SIZE + estimateSize(links.self);
+    }
+
+    static long estimateSize(@CheckForNull Link link) {
+        return (link == null) ? 0 : LINK_SIZE + estimateSize(link.href);
+    }
+
+    /** String object, plus its backing char array */
+    static long estimateSize(@CheckForNull String s) {
+        return (s == null) ? 0 : 24 + OBJECT_OVERHEAD + 2L * s.length();
+    }
+}
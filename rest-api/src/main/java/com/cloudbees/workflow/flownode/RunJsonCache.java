@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.util.JSONReadWrite;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.Weigher;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.io.IOException;
+
+/**
+ * Serialized JSON of completed runs, so a cache hit does not need to go through Jackson again.
+ * <p>
+ * Sits next to the {@link RunExt} cache in {@link FlowNodeUtil.CacheExtension}: entries are dropped whenever the
+ * run they were serialized from leaves that cache. Links embed the context path, which is fixed for the
+ * lifetime of the instance, so it is not part of the key.
+ * </p>
+ * Bounded by System Property {@code com.cloudbees.workflow.flownode.RunJsonCache.maxWeightMB} (default 32).
+ */
+@Restricted(NoExternalUse.class)
+public class RunJsonCache {
+
+    static final long MAX_WEIGHT_MB = Long.getLong(RunJsonCache.class.getName() + ".maxWeightMB", 32L);
+
+    public enum Variant {
+        /** The run with all stage nodes */
+        FULL,
+        /** The run with stage nodes hidden, see {@link RunExt#createWrapper()} */
+        CHILD_HIDING
+    }
+
+    private final Cache<String, Entry> json = CacheBuilder.newBuilder()
+            .maximumWeight(MAX_WEIGHT_MB * 1024L * 1024L)
+            .weigher(new Weigher<String, Entry>() {
+                @Override
+                public int weigh(String key, Entry value) {
+                    return value.bytes.length + 2 * key.length();
+                }
+            })
+            .build();
+
+    /** The JSON along with the run it was serialized from, only good while that run is the cached one */
+    private static final class Entry {
+        final RunExt source;
+        final byte[] bytes;
+
+        Entry(RunExt source, byte[] bytes) {
+            this.source = source;
+            this.bytes = bytes;
+        }
+    }
+
+    private static String key(String runKey, Variant variant) {
+        return runKey + '|' + variant.name();
+    }
+
+    /**
+     * JSON for the run, computing and caching both the run and its JSON if needed.
+     * <p>
+     * An invalidation can come between serializing and caching the JSON, so an entry is only used while the run it was
+     * serialized from is still in the run cache: stale JSON put back after a rename or eviction is never served.
+     * </p>
+     */
+    @Nonnull
+    public byte[] getJson(@Nonnull WorkflowRun run, @Nonnull Variant variant) throws IOException {
+        if (run.isBuilding()) {
+            return serialize(RunExt.create(run), variant);
+        }
+        String key = key(run.getExternalizableId(), variant);
+        Entry entry = json.getIfPresent(key);
+        if (entry != null && entry.source == FlowNodeUtil.peekCachedRun(run)) {
+            return entry.bytes;
+        }
+        RunExt runExt = RunExt.create(run);
+        byte[] bytes = serialize(runExt, variant);
+        if (runExt == FlowNodeUtil.peekCachedRun(run)) {
+            json.put(key, new Entry(runExt, bytes));
+        }
+        return bytes;
+    }
+
+    private static byte[] serialize(RunExt runExt, Variant variant) throws IOException {
+        RunExt view = (variant == Variant.FULL) ? runExt : runExt.createWrapper();
+        return JSONReadWrite.jsonMapper.writeValueAsBytes(view);
+    }
+
+    /** Drop all variants of a run, by {@link WorkflowRun#getExternalizableId()}. */
+    void invalidate(@Nonnull String runKey) {
+        for (Variant variant : Variant.values()) {
+            json.invalidate(key(runKey, variant));
+        }
+    }
+
+    public long size() {
+        return json.size();
+    }
+}
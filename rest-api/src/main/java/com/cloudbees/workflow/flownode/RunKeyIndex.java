@@ -0,0 +1,111 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.google.common.cache.Cache;
+import com.google.common.cache.ForwardingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalListener;
+import com.google.common.cache.RemovalNotification;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Sorted index of the keys in the run cache, so the runs of one job, or of every job in a folder, can be found
+ * with a range lookup instead of scanning the whole cache.
+ * <p>
+ * Cache keys are {@link hudson.model.Run#getExternalizableId()}, i.e. {@code folder/job#number}: the runs of a job
+ * all sort between {@code job#} and {@code job$}, and the jobs of a folder between {@code folder/} and
+ * {@code folder0} (the characters following '#' and '/').
+ * </p>
+ * Entries are added by the cache wrapper from {@link #wrap(Cache)} and removed through the cache's removal listener,
+ * including on eviction, so the index never holds more keys than the cache.
+ */
+@Restricted(NoExternalUse.class)
+class RunKeyIndex implements RemovalListener<String, RunExt> {
+
+    private final ConcurrentSkipListSet<String> keys = new ConcurrentSkipListSet<String>();
+
+    @Override
+    public void onRemoval(RemovalNotification<String, RunExt> notification) {
+        // A replaced entry is still in the cache, under the same key
+        if (notification.getKey() != null && notification.getCause() != RemovalCause.REPLACED) {
+            keys.remove(notification.getKey());
+        }
+    }
+
+    /** Cached run keys for a job, by full name */
+    @Nonnull
+    List<String> getJobKeys(@Nonnull String jobFullName) {
+        return copy(keys.subSet(jobFullName + '#', jobFullName + '$'));
+    }
+
+    /** Cached run keys for all jobs nested anywhere under a folder, by full name */
+    @Nonnull
+    List<String> getFolderKeys(@Nonnull String folderFullName) {
+        return copy(keys.subSet(folderFullName + '/', folderFullName + '0'));
+    }
+
+    int size() {
+        return keys.size();
+    }
+
+    // Copy, so callers can invalidate while iterating
+    private static List<String> copy(NavigableSet<String> range) {
+        return new ArrayList<String>(range);
+    }
+
+    /** Cache that keeps this index up to date as runs are added. */
+    Cache<String, RunExt> wrap(@Nonnull Cache<String, RunExt> cache) {
+        return new IndexedCache(cache);
+    }
+
+    private class IndexedCache extends ForwardingCache.SimpleForwardingCache<String, RunExt> {
+        IndexedCache(Cache<String, RunExt> delegate) {
+            super(delegate);
+        }
+
+        // Index first: a stale key is harmless, a missing one would leave a run behind on invalidation
+        @Override
+        public void put(String key, RunExt value) {
+            keys.add(key);
+            super.put(key, value);
+        }
+
+        @Override
+        public RunExt get(String key, Callable<? extends RunExt> valueLoader) throws ExecutionException {
+            keys.add(key);
+            return super.get(key, valueLoader);
+        }
+    }
+}
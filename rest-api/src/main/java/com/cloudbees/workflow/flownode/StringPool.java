@@ -0,0 +1,182 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
+import com.cloudbees.workflow.rest.external.ErrorExt;
+import com.cloudbees.workflow.rest.external.FlowNodeExt;
+import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Canonical instances of the strings held by cached stages and nodes that recur from run to run: names, node ids,
+ * exec nodes, parent node ids and error types. The same stage and step names come back in every run of a job, and
+ * the run cache may hold hundreds of runs per job.
+ * <p>
+ * Only runs entering the run cache are interned (see {@link FlowNodeUtil#cacheRun}), whether computed or read back
+ * from a snapshot, rather than every object built for a single request. Step arguments and error messages are left
+ * alone: they are mostly unique, so pooling them costs a lookup and a pool entry for nothing.
+ * </p>
+ * <p>
+ * Backed by a weak interner, so strings no cached object refers to any more are collected as usual, unlike
+ * {@link String#intern()}. Savings are reported by {@link RunCacheStats}.
+ * </p>
+ * Can be disabled by setting System Property
+ * {@code com.cloudbees.workflow.flownode.StringPool.enabled} to 'false'.
+ */
+@Restricted(NoExternalUse.class)
+public final class StringPool {
+
+    private static final boolean ENABLED = Boolean.parseBoolean(
+            System.getProperty(StringPool.class.getName() + ".enabled", "true"));
+
+    private static final Interner<String> INTERNER = Interners.newWeakInterner();
+
+    private static final AtomicLong LOOKUPS = new AtomicLong();
+    private static final AtomicLong DUPLICATES = new AtomicLong();
+
+    private StringPool() {
+    }
+
+    /** The canonical instance of the string, or null */
+    @CheckForNull
+    public static String intern(@CheckForNull String s) {
+        if (s == null || !ENABLED) {
+            return s;
+        }
+        LOOKUPS.incrementAndGet();
+        String canonical = INTERNER.intern(s);
+        if (canonical != s) {
+            DUPLICATES.incrementAndGet();
+        }
+        return canonical;
+    }
+
+    /** A copy of the list with canonical instances, or null */
+    @CheckForNull
+    public static List<String> intern(@CheckForNull List<String> strings) {
+        if (strings == null || !ENABLED) {
+            return strings;
+        }
+        List<String> interned = new ArrayList<String>(strings.size());
+        for (String s : strings) {
+            interned.add(intern(s));
+        }
+        return interned;
+    }
+
+    /** Replaces the recurring strings of the run's stages and nodes by their canonical instances, in place */
+    public static void intern(@CheckForNull RunExt run) {
+        if (run == null || run.getStages() == null || !ENABLED) {
+            return;
+        }
+        for (StageNodeExt stage : run.getStages()) {
+            internNode(stage);
+            List<AtomFlowNodeExt> children = stage.getStageFlowNodes();
+            if (children != null) {
+                for (AtomFlowNodeExt child : children) {
+                    internNode(child);
+                    child.setParentNodes(intern(child.getParentNodes()));
+                }
+            }
+        }
+    }
+
+    private static void internNode(FlowNodeExt node) {
+        node.setId(intern(node.getId()));
+        node.setName(intern(node.getName()));
+        node.setExecNode(intern(node.getExecNode()));
+        ErrorExt error = node.getError();
+        if (error != null) {
+            error.setType(intern(error.getType()));
+        }
+    }
+
+    /** Number of strings looked up, since startup */
+    public static long getLookupCount() {
+        return LOOKUPS.get();
+    }
+
+    /** Number of strings replaced by an equal one already in the pool, since startup */
+    public static long getDuplicateCount() {
+        return DUPLICATES.get();
+    }
+
+    /**
+     * Estimated heap the runs do not retain thanks to the pool, in bytes: each reference to a pooled string beyond
+     * the first would otherwise be a copy of its own.
+     */
+    public static long getSavedBytes(Iterable<RunExt> runs) {
+        if (!ENABLED) {
+            return 0;
+        }
+        Set<String> seen = Collections.newSetFromMap(new IdentityHashMap<String, Boolean>());
+        long saved = 0;
+        for (RunExt run : runs) {
+            if (run.getStages() == null) {
+                continue;
+            }
+            for (StageNodeExt stage : run.getStages()) {
+                saved += savedBytes(stage, seen);
+                List<AtomFlowNodeExt> children = stage.getStageFlowNodes();
+                if (children != null) {
+                    for (AtomFlowNodeExt child : children) {
+                        saved += savedBytes(child, seen);
+                        if (child.getParentNodes() != null) {
+                            for (String parent : child.getParentNodes()) {
+                                saved += savedBytes(parent, seen);
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        return saved;
+    }
+
+    private static long savedBytes(FlowNodeExt node, Set<String> seen) {
+        long saved = savedBytes(node.getId(), seen) + savedBytes(node.getName(), seen) + savedBytes(node.getExecNode(), seen);
+        ErrorExt error = node.getError();
+        if (error != null) {
+            saved += savedBytes(error.getType(), seen);
+        }
+        return saved;
+    }
+
+    private static long savedBytes(@CheckForNull String s, Set<String> seen) {
+        return (s == null || seen.add(s)) ? 0 : RunExtWeigher.estimateSize(s);
+    }
+}
@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.Extension;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Parent to children adjacency of the nodes of a {@link FlowExecution}, so the node after a given one can be found
+ * without scanning the graph back from the heads.
+ * <p>
+ * Node ids are sequential integers, so the index is a set of int arrays: the first edge out of each node by node
+ * id, and for each edge the child and the next edge out of the same parent. It is built by walking the graph once,
+ * the first time it is needed, and extended as nodes are appended to a running execution. If any node id is not a
+ * number, the index gives up and lookups are {@link #UNKNOWN}.
+ * </p>
+ * Indexes are dropped with their {@link FlowExecution}, or when unused for a while.
+ */
+@Restricted(NoExternalUse.class)
+public final class SuccessorIndex {
+
+    /** The node has no successor (yet) */
+    public static final int NONE = -1;
+
+    /** The index cannot answer, fall back to scanning the graph */
+    public static final int UNKNOWN = -2;
+
+    private static final Cache<FlowExecution, SuccessorIndex> INDEXES = CacheBuilder.newBuilder()
+            .weakKeys()
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    /** By parent node id: index of its first edge, plus one so that zero means none */
+    private int[] firstEdge = new int[256];
+    /** By edge: the child node id */
+    private int[] edgeChild = new int[256];
+    /** By edge: index of the next edge out of the same parent, plus one */
+    private int[] edgeNext = new int[256];
+    private int edgeCount = 0;
+
+    private boolean built = false;
+    private volatile boolean numeric = true;
+
+    /** Nodes appended since the last lookup, as child id then parent ids; the listener must never wait on a walk */
+    private final Queue<int[]> appended = new ConcurrentLinkedQueue<int[]>();
+
+    private SuccessorIndex() {
+    }
+
+    @Nonnull
+    public static SuccessorIndex of(@Nonnull FlowExecution execution) {
+        try {
+            return INDEXES.get(execution, new Callable<SuccessorIndex>() {
+                @Override
+                public SuccessorIndex call() {
+                    return new SuccessorIndex();
+                }
+            });
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Unable to create successor index", ee);
+        }
+    }
+
+    /**
+     * Find the earliest node that has the given node as a parent.
+     * @param execution Execution the node belongs to, walked the first time
+     * @param nodeId Id of the node
+     * @return Id of the successor, {@link #NONE} or {@link #UNKNOWN}
+     */
+    public synchronized int getFirstSuccessor(@Nonnull FlowExecution execution, int nodeId) {
+        if (!built) {
+            build(execution);
+        }
+        for (int[] node = appended.poll(); node != null && numeric; node = appended.poll()) {
+            for (int i = 1; i < node.length; i++) {
+                addEdge(node[i], node[0]);
+            }
+        }
+        if (!numeric) {
+            return UNKNOWN;
+        }
+        if (nodeId < 0 || nodeId >= firstEdge.length) {
+            return NONE;
+        }
+        int successor = NONE;
+        for (int edge = firstEdge[nodeId]; edge != 0; edge = edgeNext[edge - 1]) {
+            int child = edgeChild[edge - 1];
+            if (successor == NONE || child < successor) {
+                successor = child;
+            }
+        }
+        return successor;
+    }
+
+    /** Index every node reachable from the current heads; nodes appended meanwhile come through the listener */
+    private void build(@Nonnull FlowExecution execution) {
+        for (FlowNode node : new DepthFirstScanner().allNodes(execution)) {
+            add(node);
+            if (!numeric) {
+                break;
+            }
+        }
+        built = true;
+    }
+
+    private void add(@Nonnull FlowNode node) {
+        int[] ids = toIds(node);
+        if (ids == null) {
+            numeric = false;
+            return;
+        }
+        for (int i = 1; i < ids.length; i++) {
+            addEdge(ids[i], ids[0]);
+        }
+    }
+
+    /** Id of the node then of its parents, or null if any is not a number */
+    @CheckForNull
+    private static int[] toIds(@Nonnull FlowNode node) {
+        List<FlowNode> parents = node.getParents();
+        int[] ids = new int[parents.size() + 1];
+        ids[0] = parseId(node);
+        for (int i = 0; i < parents.size(); i++) {
+            ids[i + 1] = parseId(parents.get(i));
+        }
+        for (int id : ids) {
+            if (id < 0) {
+                return null;
+            }
+        }
+        return ids;
+    }
+
+    private void addEdge(int parent, int child) {
+        if (parent >= firstEdge.length) {
+            firstEdge = Arrays.copyOf(firstEdge, Math.max(parent + 1, firstEdge.length * 2));
+        }
+        // The listener and the initial walk can both see the same node
+        for (int edge = firstEdge[parent]; edge != 0; edge = edgeNext[edge - 1]) {
+            if (edgeChild[edge - 1] == child) {
+                return;
+            }
+        }
+        if (edgeCount == edgeChild.length) {
+            edgeChild = Arrays.copyOf(edgeChild, edgeCount * 2);
+            edgeNext = Arrays.copyOf(edgeNext, edgeCount * 2);
+        }
+        edgeChild[edgeCount] = child;
+        edgeNext[edgeCount] = firstEdge[parent];
+        edgeCount++;
+        firstEdge[parent] = edgeCount;
+    }
+
+    private static int parseId(@Nonnull FlowNode node) {
+        try {
+            return Integer.parseInt(node.getId());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+    }
+
+    /** Extends the indexes of running executions; does nothing for executions nobody looked up nodes in. */
+    @Extension
+    public static class NewHeadListener implements GraphListener {
+        @Override
+        public void onNewHead(FlowNode node) {
+            SuccessorIndex index = INDEXES.getIfPresent(node.getExecution());
+            if (index != null && index.numeric) {
+                int[] ids = toIds(node);
+                if (ids == null) {
+                    index.numeric = false;
+                } else {
+                    index.appended.add(ids);
+                }
+            }
+        }
+    }
+}
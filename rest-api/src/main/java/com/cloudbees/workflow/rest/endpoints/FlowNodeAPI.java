@@ -26,11 +26,20 @@ package com.cloudbees.workflow.rest.endpoints;
 import com.cloudbees.workflow.rest.AbstractFlowNodeActionHandler;
 import com.cloudbees.workflow.rest.endpoints.flownode.Describe;
 import com.cloudbees.workflow.rest.endpoints.flownode.Log;
+import com.cloudbees.workflow.rest.external.StatusExt;
+import com.cloudbees.workflow.util.ETagged;
 import com.cloudbees.workflow.util.ModelUtil;
 import com.cloudbees.workflow.util.ServeJson;
 import hudson.Extension;
+import hudson.console.AnnotatedLargeText;
+import hudson.model.Queue;
+import hudson.model.Run;
+import org.jenkinsci.plugins.workflow.actions.LogAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.kohsuke.stapler.StaplerRequest;
 
+import javax.annotation.Nonnull;
 import java.io.IOException;
 
 /**
@@ -42,12 +51,48 @@ import java.io.IOException;
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 @Extension
-public class FlowNodeAPI extends AbstractFlowNodeActionHandler {
+public class FlowNodeAPI extends AbstractFlowNodeActionHandler implements ETagged {
 
     public static String getUrl(FlowNode node) {
         return ModelUtil.getFullItemUrl(node) + FlowNodeAPI.URL_BASE;
     }
 
+    @Override
+    public String getETagState(@Nonnull StaplerRequest request, @Nonnull String webMethod) {
+        FlowNode node = getNode();
+        String nodeState;
+        try {
+            // The run's start time and the heads of its execution tell apart the same node of a job deleted and
+            // created again under the same name
+            nodeState = node.getUrl() + ':' + runIdentity(node.getExecution());
+        } catch (IOException ioe) {
+            return null;
+        }
+
+        if ("doLog".equals(webMethod)) {
+            // Logs are append-only, what we return only depends on how much there is
+            LogAction logAction = node.getAction(LogAction.class);
+            AnnotatedLargeText<? extends FlowNode> logText = (logAction != null) ? logAction.getLogText() : null;
+            long length = (logText != null) ? logText.length() : -1;
+            return nodeState + ':' + length + ':' + StatusExt.valueOf(node.getError());
+        } else if ("doIndex".equals(webMethod) || "doDescribe".equals(webMethod)) {
+            return node.getExecution().isComplete() ? nodeState : null;
+        }
+        return null;
+    }
+
+    private static String runIdentity(FlowExecution execution) throws IOException {
+        StringBuilder identity = new StringBuilder();
+        Queue.Executable executable = execution.getOwner().getExecutable();
+        if (executable instanceof Run) {
+            identity.append(((Run) executable).getStartTimeInMillis());
+        }
+        for (FlowNode head : execution.getCurrentHeads()) {
+            identity.append(':').append(head.getId());
+        }
+        return identity.toString();
+    }
+
     @ServeJson
     public Object doIndex() throws IOException {
         return Describe.get(getNode());
@@ -26,12 +26,29 @@ package com.cloudbees.workflow.rest.endpoints;
 import com.cloudbees.workflow.rest.AbstractWorkflowJobActionHandler;
 import com.cloudbees.workflow.rest.external.JobExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.RunsPageExt;
+import com.cloudbees.workflow.rest.hal.Link;
+import com.cloudbees.workflow.util.ETagged;
+import com.cloudbees.workflow.util.JSONReadWrite;
 import com.cloudbees.workflow.util.ModelUtil;
 import com.cloudbees.workflow.util.ServeJson;
+import com.fasterxml.jackson.core.JsonGenerator;
 import hudson.Extension;
+import hudson.Util;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.QueryParameter;
+import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
 
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletResponse;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -43,7 +60,14 @@ import java.util.List;
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 @Extension
-public class JobAPI extends AbstractWorkflowJobActionHandler {
+public class JobAPI extends AbstractWorkflowJobActionHandler implements ETagged {
+
+    /**
+     * Streams the runs listing, off by default. Can be enabled by setting System Property
+     * {@code com.cloudbees.workflow.rest.endpoints.JobAPI.streamRuns} to 'true', at the cost of the listing's ETag.
+     */
+    static final boolean STREAM_RUNS = Boolean.parseBoolean(
+            System.getProperty(JobAPI.class.getName() + ".streamRuns", "false"));
 
     public static String getUrl(WorkflowJob job) {
         return ModelUtil.getFullItemUrl(job.getUrl()) + URL_BASE + "/";
@@ -57,16 +81,268 @@ public class JobAPI extends AbstractWorkflowJobActionHandler {
         return getUrl(job) + "runs";
     }
 
+    /**
+     * The runs listed by {@link #doRuns}, as long as none of them is still running. None when the runs are streamed:
+     * the headers are sent before we know whether the time limit cut the list short.
+     */
+    @Override
+    public String getETagState(@Nonnull StaplerRequest request, @Nonnull String webMethod) {
+        if (!"doRuns".equals(webMethod) || STREAM_RUNS) {
+            return null;
+        }
+        String since = Util.fixEmptyAndTrim(request.getParameter("since"));
+        StringBuilder state = new StringBuilder(getJob().getFullName()).append('?').append(request.getQueryString());
+
+        // Same runs as JobExt picks
+        Iterable<WorkflowRun> runs = getJob().getBuilds();
+        PageRequest page;
+        try {
+            page = PageRequest.parse(request.getParameter("limit"), request.getParameter("before"), request.getParameter("after"));
+        } catch (NumberFormatException e) {
+            return null;
+        }
+        if (page != null) {
+            // Already cut to the page
+            runs = page.runs(getJob());
+            since = null;
+        }
+        int count = 0;
+        for (WorkflowRun run : runs) {
+            if (run.isBuilding()) {
+                return null;
+            }
+            state.append(':').append(run.getNumber()).append('/').append(run.getDisplayName());
+            count++;
+            if ((since != null && run.getDisplayName().equals(since)) || (page == null && count > JobExt.MAX_RUNS_PER_JOB)) {
+                break;
+            }
+        }
+        // The links to the neighbouring pages change when runs are added or deleted
+        state.append(':').append(getJob().getNextBuildNumber());
+        return state.toString();
+    }
+
     /**
      * Get all Workflow Job runs/builds since the specified run/build name.
      * @param since The run/build name at which to stop returning (inclusive),
      *              or null/empty if all runs/builds are to be returned.
      * @param fullStages Return the stageNodes within each stage
-     * @return The runs list.
+     * @param limit Page size, for a page of runs rather than the runs since
+     * @param before Build number, for the page of runs just older than it
+     * @param after Build number, for the page of runs just newer than it
+     * @return The runs list, or the page of runs with links to the pages around it if any of {@code limit},
+     *         {@code before} or {@code after} is given; written out one run at a time if streaming is enabled.
      */
     @ServeJson
-    public List<RunExt> doRuns(@QueryParameter String since, @QueryParameter boolean fullStages) {
-        return JobExt.create(getJob().getBuilds(), since, fullStages);
+    public Object doRuns(@QueryParameter String since, @QueryParameter boolean fullStages,
+                         @QueryParameter String limit, @QueryParameter String before, @QueryParameter String after) {
+        PageRequest page;
+        try {
+            page = PageRequest.parse(limit, before, after);
+        } catch (NumberFormatException e) {
+            return HttpResponses.error(HttpServletResponse.SC_BAD_REQUEST, "limit, before and after must be positive build numbers or counts: " + e.getMessage());
+        }
+        if (page != null) {
+            return doRunsPage(page, fullStages);
+        }
+        if (STREAM_RUNS) {
+            return new StreamingRunsResponse(getJob().getBuilds(), since, fullStages);
+        }
+        List<RunExt> runs = JobExt.create(getJob().getBuilds(), since, fullStages);
+        StaplerResponse response = Stapler.getCurrentResponse();
+        if (JobExt.isPartial(runs) && response != null) {
+            // Incomplete page, must not be revalidated against the ETag of the complete one
+            response.setHeader("Cache-Control", "no-store");
+        }
+        return runs;
+    }
+
+    private Object doRunsPage(PageRequest page, boolean fullStages) {
+        WorkflowJob job = getJob();
+        List<WorkflowRun> runs = page.runs(job);
+        if (STREAM_RUNS) {
+            return new StreamingPageResponse(job, page, runs, fullStages, JobExt.TIMEOUT_MILLIS);
+        }
+        List<RunExt> runsExt = JobExt.createPage(runs, fullStages);
+        StaplerResponse response = Stapler.getCurrentResponse();
+        if (JobExt.isPartial(runsExt) && response != null) {
+            response.setHeader("Cache-Control", "no-store");
+        }
+        RunsPageExt pageExt = new RunsPageExt();
+        pageExt.setRuns(runsExt);
+        if (JobExt.isPartial(runsExt)) {
+            pageExt.setPartial(true);
+        }
+        pageExt.set_links(page.links(job, runs.subList(0, runsExt.size()), fullStages));
+        return pageExt;
+    }
+
+    /** Cursors of a page of runs: a page size, and a build number to list the runs before or after */
+    static final class PageRequest {
+        final int limit;
+        final Integer before;
+        final Integer after;
+
+        private PageRequest(int limit, Integer before, Integer after) {
+            this.limit = limit;
+            this.before = before;
+            this.after = after;
+        }
+
+        /**
+         * @return Null if none of the parameters is given
+         * @throws NumberFormatException If any is not a positive number, or both before and after are given
+         */
+        @CheckForNull
+        static PageRequest parse(String limit, String before, String after) {
+            limit = Util.fixEmptyAndTrim(limit);
+            before = Util.fixEmptyAndTrim(before);
+            after = Util.fixEmptyAndTrim(after);
+            if (limit == null && before == null && after == null) {
+                return null;
+            }
+            if (before != null && after != null) {
+                throw new NumberFormatException("only one of before and after can be given");
+            }
+            return new PageRequest(
+                    limit == null ? JobExt.MAX_RUNS_PER_JOB : Math.min(positive(limit), JobExt.MAX_PAGE_SIZE),
+                    before == null ? null : positive(before),
+                    after == null ? null : positive(after));
+        }
+
+        private static int positive(String value) {
+            int number = Integer.parseInt(value);
+            if (number <= 0) {
+                throw new NumberFormatException(value + " is not positive");
+            }
+            return number;
+        }
+
+        List<WorkflowRun> runs(WorkflowJob job) {
+            return JobExt.page(job, before, after, limit);
+        }
+
+        /** Links from the runs actually returned, newest first, to the pages of runs just older and newer */
+        RunsPageExt.PageLinks links(WorkflowJob job, List<WorkflowRun> returned, boolean fullStages) {
+            String base = getRunsUrl(job) + "?limit=" + limit + (fullStages ? "&fullStages=true" : "");
+            RunsPageExt.PageLinks links = new RunsPageExt.PageLinks();
+            if (before != null) {
+                links.initSelf(base + "&before=" + before);
+            } else if (after != null) {
+                links.initSelf(base + "&after=" + after);
+            } else {
+                links.initSelf(base);
+            }
+            if (!returned.isEmpty()) {
+                WorkflowRun oldest = returned.get(returned.size() - 1);
+                if (oldest.getPreviousBuild() != null) {
+                    links.setNext(Link.newLink(base + "&before=" + oldest.getNumber()));
+                }
+                WorkflowRun newest = returned.get(0);
+                if (newest.getNextBuild() != null) {
+                    links.setPrev(Link.newLink(base + "&after=" + newest.getNumber()));
+                }
+            }
+            return links;
+        }
+    }
+
+    /**
+     * Writes JSON as it is produced. If that fails partway, the body is left unterminated rather than closed into
+     * valid JSON, so that clients do not mistake it for a complete answer: the status was sent long before.
+     */
+    abstract static class StreamingResponse implements HttpResponse {
+
+        @Override
+        public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
+            rsp.setContentType("application/json; charset=UTF-8");
+            // Sent before we know whether the time limit cuts the runs short
+            rsp.setHeader("Cache-Control", "no-store");
+            JsonGenerator generator = JSONReadWrite.jsonMapper.getFactory().createGenerator(rsp.getOutputStream());
+            boolean written = false;
+            try {
+                write(generator);
+                written = true;
+            } finally {
+                if (!written) {
+                    generator.disable(JsonGenerator.Feature.AUTO_CLOSE_JSON_CONTENT);
+                }
+                generator.close();
+            }
+        }
+
+        abstract void write(JsonGenerator generator) throws IOException;
+    }
+
+    /**
+     * Writes each run of a page as soon as it is computed, then the links from the runs written. A page cut short by
+     * the time limit says so with {@code "partial": true}.
+     */
+    static class StreamingPageResponse extends StreamingResponse {
+        private final WorkflowJob job;
+        private final PageRequest page;
+        private final List<WorkflowRun> runs;
+        private final boolean fullStages;
+        private final long timeoutMillis;
+
+        StreamingPageResponse(WorkflowJob job, PageRequest page, List<WorkflowRun> runs, boolean fullStages, long timeoutMillis) {
+            this.job = job;
+            this.page = page;
+            this.runs = runs;
+            this.fullStages = fullStages;
+            this.timeoutMillis = timeoutMillis;
+        }
+
+        @Override
+        void write(final JsonGenerator generator) throws IOException {
+            final int[] written = new int[1];
+            generator.writeStartObject();
+            generator.writeArrayFieldStart("runs");
+            boolean complete = JobExt.createPage(runs, fullStages, new JobExt.RunSink() {
+                @Override
+                public void accept(RunExt run) throws IOException {
+                    JSONReadWrite.jsonMapper.writeValue(generator, run);
+                    generator.flush();
+                    written[0]++;
+                }
+            }, timeoutMillis);
+            generator.writeEndArray();
+            if (!complete) {
+                generator.writeBooleanField("partial", true);
+            }
+            generator.writeFieldName("_links");
+            JSONReadWrite.jsonMapper.writeValue(generator, page.links(job, runs.subList(0, written[0]), fullStages));
+            generator.writeEndObject();
+        }
+    }
+
+    /**
+     * Writes each run as soon as it is computed, rather than the whole list at the end. The list has no room for a
+     * marker, clients that need to tell a list cut short by the time limit ask for a page ({@code ?limit=}) instead.
+     */
+    static class StreamingRunsResponse extends StreamingResponse {
+        private final List<WorkflowRun> runs;
+        private final String since;
+        private final boolean fullStages;
+
+        StreamingRunsResponse(List<WorkflowRun> runs, String since, boolean fullStages) {
+            this.runs = runs;
+            this.since = since;
+            this.fullStages = fullStages;
+        }
+
+        @Override
+        void write(final JsonGenerator generator) throws IOException {
+            generator.writeStartArray();
+            JobExt.create(runs, since, fullStages, new JobExt.RunSink() {
+                @Override
+                public void accept(RunExt run) throws IOException {
+                    JSONReadWrite.jsonMapper.writeValue(generator, run);
+                    generator.flush();
+                }
+            });
+            generator.writeEndArray();
+        }
     }
 
     @ServeJson
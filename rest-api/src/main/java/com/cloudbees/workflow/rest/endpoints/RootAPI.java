@@ -0,0 +1,73 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.endpoints;
+
+import com.cloudbees.workflow.flownode.RunCacheStats;
+import com.cloudbees.workflow.flownode.RunCacheWarmer;
+import com.cloudbees.workflow.rest.AbstractAPIActionHandler;
+import com.cloudbees.workflow.util.ServeJson;
+import hudson.Extension;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+
+/**
+ * API Action handler for instance-wide diagnostics, restricted to administrators.
+ * <p>
+ * Bound to {@code ${{rootURL}/wfapi/*}}
+ * </p>
+ */
+@Extension
+public class RootAPI implements RootAction {
+
+    @Override
+    public String getUrlName() {
+        return AbstractAPIActionHandler.URL_BASE;
+    }
+
+    @Override
+    public String getIconFileName() {
+        // No display
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        // No display
+        return null;
+    }
+
+    /** Progress of the startup run cache warm-up, see {@link RunCacheWarmer}. */
+    @ServeJson
+    public RunCacheWarmer.Status doWarmUp() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return RunCacheWarmer.getStatus();
+    }
+
+    /** Run cache effectiveness and compute times, see {@link RunCacheStats}. */
+    @ServeJson
+    public RunCacheStats doCacheStats() {
+        Jenkins.getInstance().checkPermission(Jenkins.ADMINISTER);
+        return new RunCacheStats();
+    }
+}
@@ -23,11 +23,14 @@
  */
 package com.cloudbees.workflow.rest.endpoints;
 
+import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.flownode.RunJsonCache;
 import com.cloudbees.workflow.rest.AbstractWorkflowRunActionHandler;
 import com.cloudbees.workflow.rest.external.BuildArtifactExt;
 import com.cloudbees.workflow.rest.external.ChangeSetExt;
 import com.cloudbees.workflow.rest.external.PendingInputActionsExt;
-import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.util.ETagged;
+import com.cloudbees.workflow.util.JsonBytesResponse;
 import com.cloudbees.workflow.util.ModelUtil;
 import com.cloudbees.workflow.util.ServeJson;
 import hudson.Extension;
@@ -39,11 +42,15 @@ import org.jenkinsci.plugins.workflow.support.steps.input.InputAction;
 import org.jenkinsci.plugins.workflow.support.steps.input.InputStepExecution;
 import org.kohsuke.accmod.Restricted;
 import org.kohsuke.accmod.restrictions.DoNotUse;
+import org.kohsuke.stapler.HttpResponse;
 import org.kohsuke.stapler.QueryParameter;
 import org.kohsuke.stapler.Stapler;
+import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.interceptor.RequirePOST;
 
+import javax.annotation.Nonnull;
 import javax.servlet.ServletException;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -56,7 +63,7 @@ import java.util.List;
  * @author <a href="mailto:tom.fennelly@gmail.com">tom.fennelly@gmail.com</a>
  */
 @Extension
-public class RunAPI extends AbstractWorkflowRunActionHandler {
+public class RunAPI extends AbstractWorkflowRunActionHandler implements ETagged {
     static {
         System.setProperty("hudson.model.ParametersAction.keepUndefinedParameters", "true");
     }
@@ -93,16 +100,36 @@ public class RunAPI extends AbstractWorkflowRunActionHandler {
         return ModelUtil.getFullItemUrl(run.getUrl()) + "artifact/" + artifact.getHref();
     }
 
+    @Override
+    public String getETagState(@Nonnull StaplerRequest request, @Nonnull String webMethod) {
+        WorkflowRun run = getRun();
+        // Running builds report durations up to the current time, so they are never the same twice
+        if (run.isBuilding()) {
+            return null;
+        }
+        if ("doIndex".equals(webMethod) || "doDescribe".equals(webMethod)) {
+            // The start time tells apart the same build number of a job deleted and created again under the same name
+            return run.getExternalizableId() + ':' + run.getStartTimeInMillis() + ':' + run.getDisplayName() + ':' + request.getParameter("fullStages");
+        }
+        return null;
+    }
+
     @Restricted(DoNotUse.class) // WebMethod
     @ServeJson
-    public RunExt doIndex() {
-        return doDescribe();
+    public HttpResponse doIndex(@QueryParameter boolean fullStages) throws IOException {
+        return doDescribe(fullStages);
     }
 
+    /**
+     * Get the run, served from its cached JSON once it has completed.
+     * @param fullStages Return the stageNodes within each stage
+     */
     @Restricted(DoNotUse.class) // WebMethod
     @ServeJson
-    public RunExt doDescribe() {
-        return RunExt.create(getRun()).createWrapper();
+    public HttpResponse doDescribe(@QueryParameter boolean fullStages) throws IOException {
+        RunJsonCache.Variant variant = fullStages ? RunJsonCache.Variant.FULL : RunJsonCache.Variant.CHILD_HIDING;
+        byte[] json = FlowNodeUtil.CacheExtension.all().get(0).getRunJsonCache().getJson(getRun(), variant);
+        return new JsonBytesResponse(json);
     }
 
     @Restricted(DoNotUse.class) // WebMethod
@@ -23,9 +23,13 @@
  */
 package com.cloudbees.workflow.rest.endpoints.flownode;
 
+import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.flownode.RunExtSnapshotStore;
 import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
+import com.cloudbees.workflow.rest.external.CachedStageScan;
 import com.cloudbees.workflow.rest.external.FlowNodeExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.SingleStageScanner;
 import com.cloudbees.workflow.rest.external.StageNodeExt;
 import com.cloudbees.workflow.rest.endpoints.FlowNodeAPI;
 import hudson.model.Queue;
@@ -33,6 +37,7 @@ import org.jenkinsci.plugins.workflow.graph.AtomNode;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 
+import javax.annotation.CheckForNull;
 import java.io.IOException;
 
 /**
@@ -54,21 +59,35 @@ public class Describe {
     public static FlowNodeExt get(FlowNode node) throws IOException {
         if (StageNodeExt.isStageNode(node)) {
 
-            // Digest the WorkflowRun to get the stages, using cache if possible.
-            // Future optimization for big runs: use the blackLists in the ForkScanner only digest until the
-            // Node before the stage
+            // Use the digested run if we already have it, in memory or on disk, otherwise only scan as far back as the stage start:
+            // popovers describe stages of running builds on every hover, and those are never cached
             Queue.Executable exec = node.getExecution().getOwner().getExecutable();
             if (exec instanceof WorkflowRun) {
                 WorkflowRun run = (WorkflowRun)exec;
-                RunExt runExt = RunExt.create(run);
-                for (StageNodeExt st : runExt.getStages()) {
-                    if (st.getId().equals(node.getId())) {
-                        return st;
+                RunExt cachedRun = FlowNodeUtil.getCachedRun(run);
+                if (cachedRun == null && FlowNodeUtil.isNotPartOfRunningBuild(node.getExecution())) {
+                    // Survives restarts, so cheaper than even a partial scan
+                    cachedRun = RunExtSnapshotStore.load(run);
+                    if (cachedRun != null) {
+                        FlowNodeUtil.cacheRun(run, cachedRun);
                     }
                 }
+                if (cachedRun != null) {
+                    return findStage(cachedRun, node);
+                }
+                CachedStageScan scan = CachedStageScan.getIfPresent(node.getExecution());
+                StageNodeExt stage = (scan != null) ? scan.getSealedStage(node.getId()) : null;
+                if (stage == null) {
+                    stage = SingleStageScanner.scan(run, node);
+                }
+                if (stage != null) {
+                    return stage;
+                }
+
+                // Nested in a parallel, needs the whole run
+                return findStage(RunExt.create(run), node);
             }
 
-            // This would mean that the node is a stage node but not in its own run...
             return null;
         } else if (node instanceof AtomNode) {
             return AtomFlowNodeExt.create(node);
@@ -76,4 +95,15 @@ public class Describe {
             return FlowNodeExt.create(node);
         }
     }
+
+    @CheckForNull
+    private static StageNodeExt findStage(RunExt runExt, FlowNode node) {
+        for (StageNodeExt st : runExt.getStages()) {
+            if (st.getId().equals(node.getId())) {
+                return st;
+            }
+        }
+        // This would mean that the node is a stage node but not in its own run...
+        return null;
+    }
 }
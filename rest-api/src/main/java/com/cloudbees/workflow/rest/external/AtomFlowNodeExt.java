@@ -28,7 +28,6 @@ import com.cloudbees.workflow.rest.hal.Link;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
 import org.jenkinsci.plugins.workflow.actions.LogAction;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
-import org.kohsuke.stapler.Stapler;
 
 import javax.annotation.CheckForNull;
 import java.util.ArrayList;
@@ -68,7 +67,21 @@ public class AtomFlowNodeExt extends FlowNodeExt {
         AtomFlowNodeExt basic = new AtomFlowNodeExt();
         // It would be super awesome if we didn't need to make a throwaway object
         basic.addBasicNodeData(node, execNodeName, duration, startTimeMillis, status, error);
-        if (basic.getStatus() != StatusExt.NOT_EXECUTED && Stapler.getCurrentRequest() != null) {
+        if (basic.getStatus() != StatusExt.NOT_EXECUTED) {
+            if (node.getAction(LogAction.class) != null) {
+                basic.get_links().setLog(Link.newLink(Log.getUrl(node)));
+            }
+        }
+        basic.addParentNodeRefs(node);
+        return basic;
+    }
+
+    /** Same as {@link #create(FlowNode, String, ExecDuration, long, StatusExt, ErrorAction)}, with the error already converted */
+    public static AtomFlowNodeExt create(FlowNode node, String execNodeName, ExecDuration duration, long startTimeMillis,
+                                         StatusExt status, @CheckForNull ErrorExt error) {
+        AtomFlowNodeExt basic = new AtomFlowNodeExt();
+        basic.addBasicNodeData(node, execNodeName, duration, startTimeMillis, status, error);
+        if (basic.getStatus() != StatusExt.NOT_EXECUTED) {
             if (node.getAction(LogAction.class) != null) {
                 basic.get_links().setLog(Link.newLink(Log.getUrl(node)));
             }
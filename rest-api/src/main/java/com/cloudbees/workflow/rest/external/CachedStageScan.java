@@ -0,0 +1,334 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import hudson.Extension;
+import org.jenkinsci.plugins.workflow.actions.LabelAction;
+import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.flow.GraphListener;
+import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
+import org.jenkinsci.plugins.workflow.graph.BlockStartNode;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.ForkScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StageChunkFinder;
+import org.jenkinsci.plugins.workflow.support.actions.PauseAction;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stage data for an in-progress run, cached between polls so that polling a long-running build does not rescan the
+ * entire flow graph every time.
+ * <p>
+ * This is a cached rescan, not an incremental model: stages are computed backwards from the heads, so appended nodes
+ * cannot be folded in one by one. Instead, once a stage starts outside of any other stage or parallel branch, every
+ * stage before it has finished and can no longer change: those stages are "sealed" and kept, and later scans stop at
+ * the node before the first unsealed stage. A changed graph rescans the open stages back to that boundary, which
+ * costs as much as the nodes in the open stages.
+ * </p>
+ * <p>
+ * New heads reported through {@link GraphListener} mark the scan stale. While nothing new has been appended and no
+ * head has been paused or resumed, nothing is scanned: the running stages and nodes are only timed again, from their
+ * start time and the pauses recorded on the heads, as a rescan would.
+ * </p>
+ * Scans are only cached for runs somebody actually views, and are dropped with their {@link FlowExecution}.
+ */
+@Restricted(NoExternalUse.class)
+public class CachedStageScan {
+
+    private static final Cache<FlowExecution, CachedStageScan> SCANS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .expireAfterAccess(30, TimeUnit.MINUTES)
+            .build();
+
+    /** Bumped for every new head, so we know when the last scan is out of date */
+    private final AtomicLong graphVersion = new AtomicLong();
+    private long scannedVersion = -1;
+
+    /** Which heads were paused when last scanned, since pausing does not add a head */
+    private String pauseState;
+
+    private final List<StageNodeExt> sealedStages = new ArrayList<StageNodeExt>();
+    private List<StageNodeExt> openStages = Collections.emptyList();
+
+    /** Last node before the first unsealed stage, or null if nothing is sealed yet */
+    private FlowNode boundary;
+
+    @Nonnull
+    public static CachedStageScan of(@Nonnull FlowExecution execution) {
+        try {
+            return SCANS.get(execution, new Callable<CachedStageScan>() {
+                @Override
+                public CachedStageScan call() {
+                    return new CachedStageScan();
+                }
+            });
+        } catch (ExecutionException ee) {
+            throw new IllegalStateException("Unable to create stage scan", ee);
+        }
+    }
+
+    @CheckForNull
+    public static CachedStageScan getIfPresent(@Nonnull FlowExecution execution) {
+        return SCANS.getIfPresent(execution);
+    }
+
+    public static void discard(@Nonnull FlowExecution execution) {
+        SCANS.invalidate(execution);
+    }
+
+    /** Current stages of the run, oldest first. */
+    @Nonnull
+    public synchronized List<StageNodeExt> getStages(@Nonnull WorkflowRun run, @Nonnull FlowExecution execution) {
+        long currentVersion = graphVersion.get();
+        List<StageNodeExt> retimed = null;
+        if (currentVersion == scannedVersion && pauseState(execution).equals(pauseState)) {
+            // Same graph, running stages only need timing again
+            retimed = retime(openStages, execution, System.currentTimeMillis());
+        }
+        if (retimed != null) {
+            openStages = retimed;
+        } else {
+            scanOpenStages(run, execution);
+            scannedVersion = currentVersion;
+        }
+        return allStages();
+    }
+
+    /**
+     * Final stages of a run whose execution just completed, after which the scan is dropped.
+     * Always rescans the open stages: the listener may not have reported the last nodes yet.
+     */
+    @Nonnull
+    public synchronized List<StageNodeExt> finish(@Nonnull WorkflowRun run, @Nonnull FlowExecution execution) {
+        scanOpenStages(run, execution);
+        discard(execution);
+        return allStages();
+    }
+
+    /** A stage that is known to be complete, without scanning anything; null if it is not sealed (yet). */
+    @CheckForNull
+    public synchronized StageNodeExt getSealedStage(@Nonnull String stageId) {
+        for (StageNodeExt stage : sealedStages) {
+            if (stage.getId().equals(stageId)) {
+                return stage;
+            }
+        }
+        return null;
+    }
+
+    private List<StageNodeExt> allStages() {
+        List<StageNodeExt> stages = new ArrayList<StageNodeExt>(sealedStages.size() + openStages.size());
+        stages.addAll(sealedStages);
+        stages.addAll(openStages);
+        return stages;
+    }
+
+    private static boolean isRunning(FlowNodeExt node) {
+        return node.getStatus() == StatusExt.IN_PROGRESS || node.getStatus() == StatusExt.PAUSED_PENDING_INPUT;
+    }
+
+    private static String pauseState(FlowExecution execution) {
+        StringBuilder state = new StringBuilder();
+        for (FlowNode head : execution.getCurrentHeads()) {
+            state.append(head.getId()).append(PauseAction.isPaused(head) ? "P," : ",");
+        }
+        return state.toString();
+    }
+
+    /**
+     * Copies of the stages with the running ones, and their running nodes, timed again at {@code now}. A rescan of an
+     * unchanged graph times an open chunk from its start until now, with the pauses recorded on its nodes, so that is
+     * all that needs computing. Copies, since the previous stages may still be being written out.
+     * @return The stages, or null if they cannot be timed without a rescan
+     */
+    @CheckForNull
+    static List<StageNodeExt> retime(List<StageNodeExt> stages, FlowExecution execution, long now) {
+        List<StageNodeExt> retimed = new ArrayList<StageNodeExt>(stages.size());
+        for (StageNodeExt stage : stages) {
+            if (!isRunning(stage)) {
+                retimed.add(stage);
+                continue;
+            }
+            if (stage.getStageFlowNodes() == null) {
+                // Pauses are only known through the nodes
+                return null;
+            }
+            StageNodeExt copy = new StageNodeExt();
+            copyNodeData(stage, copy);
+            copy.allChildNodeIds = stage.allChildNodeIds;
+            long stagePause = stage.getPauseDurationMillis();
+            List<AtomFlowNodeExt> nodes = new ArrayList<AtomFlowNodeExt>(stage.getStageFlowNodes().size());
+            for (AtomFlowNodeExt node : stage.getStageFlowNodes()) {
+                if (isRunning(node)) {
+                    FlowNode flowNode;
+                    try {
+                        flowNode = execution.getNode(node.getId());
+                    } catch (IOException ioe) {
+                        return null;
+                    }
+                    if (flowNode == null) {
+                        return null;
+                    }
+                    AtomFlowNodeExt nodeCopy = new AtomFlowNodeExt();
+                    copyNodeData(node, nodeCopy);
+                    nodeCopy.setParentNodes(node.getParentNodes());
+                    retime(nodeCopy, now, PauseAction.getPauseDuration(flowNode));
+                    stagePause += nodeCopy.getPauseDurationMillis() - node.getPauseDurationMillis();
+                    node = nodeCopy;
+                }
+                nodes.add(node);
+            }
+            copy.setStageFlowNodes(nodes);
+            retime(copy, now, stagePause);
+            retimed.add(copy);
+        }
+        return retimed;
+    }
+
+    /** Same as {@link ChunkVisitor#computeTiming} for a chunk nothing follows yet */
+    private static void retime(FlowNodeExt node, long now, long pause) {
+        long duration = Math.max(0, now - node.getStartTimeMillis());
+        node.setDurationMillis(duration);
+        node.setPauseDurationMillis(Math.min(Math.abs(pause), duration));
+    }
+
+    private static void copyNodeData(FlowNodeExt from, FlowNodeExt to) {
+        to.set_links(from.get_links());
+        to.setId(from.getId());
+        to.setName(from.getName());
+        to.setExecNode(from.getExecNode());
+        to.setStatus(from.getStatus());
+        to.setError(from.getError());
+        to.setParameterDescription(from.getParameterDescription());
+        to.setStartTimeMillis(from.getStartTimeMillis());
+        to.setDurationMillis(from.getDurationMillis());
+        to.setPauseDurationMillis(from.getPauseDurationMillis());
+    }
+
+    /** Scan from the heads back to the boundary, and seal whatever can no longer change. */
+    private void scanOpenStages(@Nonnull WorkflowRun run, @Nonnull FlowExecution execution) {
+        pauseState = pauseState(execution);
+        Collection<FlowNode> blackList = (boundary == null) ? Collections.<FlowNode>emptySet() : Collections.singleton(boundary);
+        ForkScanner scanner = new ForkScanner();
+        if (!scanner.setup(execution.getCurrentHeads(), blackList)) {
+            openStages = Collections.emptyList();
+            return;
+        }
+        SealingChunkVisitor visitor = new SealingChunkVisitor(run);
+        scanner.visitSimpleChunks(visitor, new StageChunkFinder());
+
+        List<StageNodeExt> stages = new ArrayList<StageNodeExt>(visitor.stages);
+        List<FlowNode> starts = new ArrayList<FlowNode>(visitor.stageStarts);
+        List<Boolean> topLevel = new ArrayList<Boolean>(visitor.stageTopLevel);
+
+        // Newest stage that started on the main flow, right after a single node and outside any other stage: everything
+        // before it is done. Inside a stage, the enclosing stage is still open; inside a branch, the other branches are.
+        int firstOpen = 0;
+        for (int i = stages.size() - 1; i > 0; i--) {
+            FlowNode start = starts.get(i);
+            if (topLevel.get(i) && start.getParents().size() == 1 && isOutsideOpenBlocks(start.getParents().get(0))) {
+                firstOpen = i;
+                boundary = start.getParents().get(0);
+                break;
+            }
+        }
+        sealedStages.addAll(stages.subList(0, firstOpen));
+        openStages = new ArrayList<StageNodeExt>(stages.subList(firstOpen, stages.size()));
+    }
+
+    /**
+     * Whether no stage or parallel branch is still open around this node. Walks back through the blocks around it,
+     * hopping over closed ones, as far as the boundary: what encloses the boundary was checked when it was set.
+     */
+    private boolean isOutsideOpenBlocks(@Nonnull FlowNode node) {
+        FlowNode current = node;
+        while (!current.equals(boundary)) {
+            if (current instanceof BlockEndNode) {
+                // Closed, whatever it holds has finished
+                current = ((BlockEndNode<?>) current).getStartNode();
+                if (current.equals(boundary)) {
+                    return true;
+                }
+            } else if (current instanceof BlockStartNode
+                    && (current.getAction(LabelAction.class) != null || current.getAction(ThreadNameAction.class) != null)) {
+                return false;
+            }
+            List<FlowNode> parents = current.getParents();
+            if (parents.isEmpty()) {
+                return true;
+            }
+            current = parents.get(0);
+        }
+        return true;
+    }
+
+    /** Also records where each stage starts and whether it is nested in a parallel. */
+    static class SealingChunkVisitor extends ChunkVisitor {
+        final ArrayDeque<FlowNode> stageStarts = new ArrayDeque<FlowNode>();
+        final ArrayDeque<Boolean> stageTopLevel = new ArrayDeque<Boolean>();
+
+        SealingChunkVisitor(@Nonnull WorkflowRun run) {
+            super(run);
+        }
+
+        @Override
+        public void chunkStart(@Nonnull FlowNode startNode, @CheckForNull FlowNode beforeBlock, @Nonnull ForkScanner scanner) {
+            int stageCount = stages.size();
+            super.chunkStart(startNode, beforeBlock, scanner);
+            if (stages.size() > stageCount) {
+                stageStarts.push(startNode);
+                stageTopLevel.push(scanner.getCurrentParallelStartNode() == null);
+            }
+        }
+    }
+
+    /** Marks scans stale as nodes are appended; cheap, since it does nothing for runs nobody is viewing. */
+    @Extension
+    public static class NewHeadListener implements GraphListener {
+        @Override
+        public void onNewHead(FlowNode node) {
+            CachedStageScan scan = SCANS.getIfPresent(node.getExecution());
+            if (scan != null) {
+                scan.graphVersion.incrementAndGet();
+            }
+        }
+    }
+}
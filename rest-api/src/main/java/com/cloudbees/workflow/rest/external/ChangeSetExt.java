@@ -24,6 +24,7 @@
 package com.cloudbees.workflow.rest.external;
 
 import com.cloudbees.workflow.util.ModelUtil;
+import com.cloudbees.workflow.util.ReflectUtil;
 import com.fasterxml.jackson.annotation.JsonInclude;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.RepositoryBrowser;
@@ -32,7 +33,6 @@ import org.apache.commons.lang.StringUtils;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -217,9 +217,7 @@ public class ChangeSetExt {
 
     private static String committer(ChangeLogSet.Entry entry) {
         try {
-            Field committerField = entry.getClass().getDeclaredField("committer");
-            committerField.setAccessible(true);
-            return (String) committerField.get(entry);
+            return (String) ReflectUtil.get(entry, "committer");
         } catch (Exception e) {
             return null;
         }
@@ -227,9 +225,7 @@ public class ChangeSetExt {
 
     private static String author(ChangeLogSet.Entry entry) {
         try {
-            Field authorField = entry.getClass().getDeclaredField("author");
-            authorField.setAccessible(true);
-            return (String) authorField.get(entry);
+            return (String) ReflectUtil.get(entry, "author");
         } catch (Exception e) {
             return null;
         }
@@ -269,14 +265,10 @@ public class ChangeSetExt {
 
     private String url(SCM scm) {
         try {
-            Field userRemoteConfigsFields = scm.getClass().getDeclaredField("userRemoteConfigs");
-            userRemoteConfigsFields.setAccessible(true);
-            List<Object> configs = (List<Object>) userRemoteConfigsFields.get(scm);
+            List<Object> configs = (List<Object>) ReflectUtil.get(scm, "userRemoteConfigs");
             if (!configs.isEmpty()) {
                 Object config = configs.get(0);
-                Field urlField = config.getClass().getDeclaredField("url");
-                urlField.setAccessible(true);
-                return (String) urlField.get(config);
+                return (String) ReflectUtil.get(config, "url");
             }
             return null;
         } catch (Exception e) {
@@ -286,14 +278,10 @@ public class ChangeSetExt {
 
     private SCM scm(WorkflowRun run) {
         try {
-            Field checkoutsFields = run.getClass().getDeclaredField("checkouts");
-            checkoutsFields.setAccessible(true);
-            List<Object> checkoutList = (List<Object>) checkoutsFields.get(run);
+            List<Object> checkoutList = (List<Object>) ReflectUtil.get(run, "checkouts");
             if (!checkoutList.isEmpty()) {
                 Object checkout = checkoutList.get(0);
-                Field scmField = checkout.getClass().getDeclaredField("scm");
-                scmField.setAccessible(true);
-                return (SCM) scmField.get(checkout);
+                return (SCM) ReflectUtil.get(checkout, "scm");
             }
             return null;
         } catch (Exception e) {
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.Nonnull;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.RandomAccess;
+
+/**
+ * Immutable list of node ids, stored as runs of consecutive numbers rather than one string per node.
+ * <p>
+ * A stage holds every node it contains, and node ids are sequential integers: unless branches interleave, the
+ * whole stage is a handful of runs. Each run is its first id and the list index it ends at, so lookups are a
+ * binary search. Lists with an id that is not a plain number are kept as a string array instead.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class ChildNodeIds extends AbstractList<String> implements RandomAccess {
+
+    public static final ChildNodeIds EMPTY = new ChildNodeIds(new int[0], new int[0], null);
+
+    /** First id of each run */
+    private final int[] runStarts;
+    /** Exclusive end index of each run in the list, i.e. the size of the list up to and including the run */
+    private final int[] runEnds;
+    /** Fallback when the ids are not all numbers */
+    private final String[] ids;
+
+    private ChildNodeIds(int[] runStarts, int[] runEnds, String[] ids) {
+        this.runStarts = runStarts;
+        this.runEnds = runEnds;
+        this.ids = ids;
+    }
+
+    @Nonnull
+    public static ChildNodeIds of(@Nonnull List<String> nodeIds) {
+        if (nodeIds instanceof ChildNodeIds) {
+            return (ChildNodeIds) nodeIds;
+        } else if (nodeIds.isEmpty()) {
+            return EMPTY;
+        }
+
+        int[] starts = new int[8];
+        int[] ends = new int[8];
+        int runs = 0;
+        int index = 0;
+        int last = -1;
+        for (String id : nodeIds) {
+            int value = parse(id);
+            if (value < 0) {
+                return new ChildNodeIds(null, null, nodeIds.toArray(new String[nodeIds.size()]));
+            }
+            if (runs > 0 && value == last + 1) {
+                ends[runs - 1] = index + 1;
+            } else {
+                if (runs == starts.length) {
+                    starts = Arrays.copyOf(starts, runs * 2);
+                    ends = Arrays.copyOf(ends, runs * 2);
+                }
+                starts[runs] = value;
+                ends[runs] = index + 1;
+                runs++;
+            }
+            last = value;
+            index++;
+        }
+        return new ChildNodeIds(Arrays.copyOf(starts, runs), Arrays.copyOf(ends, runs), null);
+    }
+
+    /** The id as a number, or -1 if it would not turn back into the same string */
+    private static int parse(String id) {
+        int length = (id == null) ? 0 : id.length();
+        if (length == 0 || length > 9 || (length > 1 && id.charAt(0) == '0')) {
+            return -1;
+        }
+        int value = 0;
+        for (int i = 0; i < length; i++) {
+            char c = id.charAt(i);
+            if (c < '0' || c > '9') {
+                return -1;
+            }
+            value = value * 10 + (c - '0');
+        }
+        return value;
+    }
+
+    @Override
+    public String get(int index) {
+        if (index < 0 || index >= size()) {
+            throw new IndexOutOfBoundsException("Index: " + index + ", size: " + size());
+        }
+        if (ids != null) {
+            return ids[index];
+        }
+        int run = Arrays.binarySearch(runEnds, index + 1);
+        if (run < 0) {
+            run = -run - 1;
+        }
+        int runStartIndex = (run == 0) ? 0 : runEnds[run - 1];
+        return Integer.toString(runStarts[run] + index - runStartIndex);
+    }
+
+    @Override
+    public int size() {
+        if (ids != null) {
+            return ids.length;
+        }
+        return (runEnds.length == 0) ? 0 : runEnds[runEnds.length - 1];
+    }
+
+    /** Whether the ids are stored as runs of numbers, see {@link #getRunCount()} */
+    public boolean isCompact() {
+        return ids == null;
+    }
+
+    /** Number of runs of consecutive ids stored, when {@link #isCompact()} */
+    public int getRunCount() {
+        return (runStarts == null) ? 0 : runStarts.length;
+    }
+}
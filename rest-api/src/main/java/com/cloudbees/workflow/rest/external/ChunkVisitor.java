@@ -1,11 +1,11 @@
 package com.cloudbees.workflow.rest.external;
 
-import com.google.common.collect.Iterables;
 import com.google.common.collect.Lists;
 import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import hudson.model.Result;
 import org.jenkinsci.plugins.workflow.actions.ErrorAction;
-import org.jenkinsci.plugins.workflow.actions.NotExecutedNodeAction;
 import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
 import org.jenkinsci.plugins.workflow.graph.AtomNode;
 import org.jenkinsci.plugins.workflow.graph.BlockEndNode;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
@@ -22,7 +22,9 @@ import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.util.ArrayDeque;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.List;
 
 /**
  * Couples to the new analysis APIs to collect stages for processing.
@@ -32,10 +34,13 @@ import java.util.Collection;
 public class ChunkVisitor extends StandardChunkVisitor {
     ArrayDeque<StageNodeExt> stages = new ArrayDeque<StageNodeExt>();
     FlowNode firstExecuted = null;
-    ArrayDeque<AtomFlowNodeExt> stageContents = new ArrayDeque<AtomFlowNodeExt>();
+    /** Only the atom nodes we will return, materialized once the stage is done */
+    AtomNodeBuffer stageContents = new AtomNodeBuffer(StageNodeExt.MAX_CHILD_NODES);
     WorkflowRun run;
     ArrayList<String> stageNodeIds = new ArrayList<String>();
     boolean isLastChunk = true;
+    /** What we know of each node visited, so each one is only inspected once */
+    final NodeStateTable nodeStates = new NodeStateTable();
 
     public ChunkVisitor(@Nonnull WorkflowRun run) {
         this.run = run;
@@ -58,15 +63,81 @@ public class ChunkVisitor extends StandardChunkVisitor {
         if (status == null) {
             status = GenericStatus.NOT_EXECUTED;
         }
-        ErrorAction err = node.getError();
-        if (status == GenericStatus.FAILURE && err == null) {
+        ErrorExt err = atomError(status, node.getError());
+
+        AtomFlowNodeExt output = AtomFlowNodeExt.create(node, "", dur, TimingAction.getStartTime(node), StatusExt.fromGenericStatus(status), err);
+        return output;
+    }
+
+    /** Error of an atom node, without creating a Throwable when there is none */
+    @CheckForNull
+    private static ErrorExt atomError(@Nonnull GenericStatus status, @CheckForNull ErrorAction error) {
+        if (status == GenericStatus.NOT_EXECUTED) {
+            return null;
+        } else if (error != null) {
+            return ErrorExt.create(error);
+        } else if (status == GenericStatus.FAILURE) {
             // Needed for FlowEndNode, since an ErrorAction isn't generated
             // When build result is set directly
-            err = new ErrorAction(new Throwable("Build marked as a failure, final stage will fail."));
+            return ErrorExt.create("Build marked as a failure, final stage will fail.", Throwable.class.getName());
         }
+        return null;
+    }
 
-        AtomFlowNodeExt output = AtomFlowNodeExt.create(node, "", dur, TimingAction.getStartTime(node), StatusExt.fromGenericStatus(status), err);
-        return output;
+    /** Same as {@link #makeAtomNode(WorkflowRun, FlowNode, FlowNode, FlowNode)}, using the node state collected by the scan */
+    @CheckForNull
+    AtomFlowNodeExt makeAtomNode(@CheckForNull FlowNode beforeNode, @Nonnull FlowNode node, @CheckForNull FlowNode next) {
+        if (!(node instanceof AtomNode)) {
+            return null;
+        }
+
+        TimingInfo times = computeTiming(nodeStates.getPause(node), node, node, next);
+        ExecDuration dur = (times == null) ? new ExecDuration() : new ExecDuration(times);
+
+        GenericStatus status = computeAtomStatus(beforeNode, node, next);
+        if (status == null) {
+            status = GenericStatus.NOT_EXECUTED;
+        }
+        ErrorExt err = atomError(status, nodeStates.hasError(node) ? node.getError() : null);
+
+        return AtomFlowNodeExt.create(node, "", dur, nodeStates.getStartTime(node), StatusExt.fromGenericStatus(status), err);
+    }
+
+    /**
+     * Equivalent to {@link StatusAndTiming#computeChunkTiming}: when another node follows the chunk, the chunk lasts
+     * until that one started, which we already know. Otherwise it depends on the run, and is left to the API, which
+     * also treats a chunk ending at a current head as still running.
+     */
+    @CheckForNull
+    TimingInfo computeTiming(long pause, @Nonnull FlowNode first, @Nonnull FlowNode last, @CheckForNull FlowNode after) {
+        if (after != null && nodeStates.isExecuted(last) && !isCurrentHead(last)) {
+            long start = nodeStates.getStartTime(first);
+            long end = nodeStates.getStartTime(after);
+            if (start > 0 && end >= start) {
+                long duration = end - start;
+                return new TimingInfo(duration, Math.min(Math.abs(pause), duration), start);
+            }
+        }
+        return StatusAndTiming.computeChunkTiming(run, pause, first, last, after);
+    }
+
+    /**
+     * Equivalent to {@link StatusAndTiming#computeChunkStatus} for a single node. A node that ran without error and
+     * was followed by another one succeeded, which is what almost every node is; the rest goes to the API.
+     */
+    @CheckForNull
+    GenericStatus computeAtomStatus(@CheckForNull FlowNode before, @Nonnull FlowNode node, @CheckForNull FlowNode after) {
+        Result result = run.getResult();
+        if (after != null && (result == null || result == Result.SUCCESS)
+                && nodeStates.isExecuted(node) && !nodeStates.hasError(node) && !isCurrentHead(node)) {
+            return GenericStatus.SUCCESS;
+        }
+        return StatusAndTiming.computeChunkStatus(run, before, node, node, after);
+    }
+
+    private boolean isCurrentHead(@Nonnull FlowNode node) {
+        FlowExecution execution = run.getExecution();
+        return execution == null || execution.isCurrentHead(node);
     }
 
     @Override
@@ -77,7 +148,7 @@ public class ChunkVisitor extends StandardChunkVisitor {
         TimingInfo times;
         if (firstExecuted != null) {
             FlowNode last = (chunk.getLastNode() != null) ? chunk.getLastNode() : chunk.getFirstNode(); // Extra safety measure for accidental nesting
-            times = StatusAndTiming.computeChunkTiming(run, chunk.getPauseTimeMillis(), firstExecuted, last, chunk.getNodeAfter());
+            times = computeTiming(chunk.getPauseTimeMillis(), firstExecuted, last, chunk.getNodeAfter());
         } else {  // Stage never really ran :)
             times = new TimingInfo(0, 0, run.getStartTimeInMillis());
         }
@@ -89,19 +160,16 @@ public class ChunkVisitor extends StandardChunkVisitor {
             status = GenericStatus.NOT_EXECUTED;
         } else {
             status = StatusAndTiming.computeChunkStatus(run, chunk.getNodeBefore(), firstExecuted, chunk.getLastNode(), chunk.getNodeAfter());
-            startTime = TimingAction.getStartTime(firstExecuted);
+            startTime = nodeStates.getStartTime(firstExecuted);
         }
 
         // TODO add and use pipeline graph analysis API to allow us to get most of the metadata for the chunk in 1 pass, efficiently
         //  and only store the FlowNodes -- not the materialized objects.
         stageExt.addBasicNodeData(chunk.getFirstNode(), "", dur, startTime, StatusExt.fromGenericStatus(status), chunk.getLastNode().getError());
 
-        int childNodeLength = Math.min(StageNodeExt.MAX_CHILD_NODES, stageContents.size());
-        ArrayList<AtomFlowNodeExt> internals = new ArrayList<AtomFlowNodeExt>(childNodeLength);
-        Iterables.addAll(internals, Iterables.limit(stageContents, StageNodeExt.MAX_CHILD_NODES));
-        stageExt.setStageFlowNodes(internals);
+        stageExt.setStageFlowNodes(stageContents.materialize(this));
 
-        stageExt.allChildNodeIds = new ArrayList<String>(Lists.reverse(stageNodeIds));
+        stageExt.allChildNodeIds = ChildNodeIds.of(Lists.reverse(stageNodeIds));
 
         this.stages.push(stageExt);
     }
@@ -117,7 +185,7 @@ public class ChunkVisitor extends StandardChunkVisitor {
     @Override
     @SuppressFBWarnings(value = "RCN_REDUNDANT_NULLCHECK_OF_NONNULL_VALUE", justification = "We can actually get nulls")
     public void chunkStart(@Nonnull FlowNode startNode, @CheckForNull FlowNode beforeBlock, @Nonnull ForkScanner scanner) {
-        if (NotExecutedNodeAction.isExecuted(startNode)) {
+        if (nodeStates.isExecuted(startNode)) {
             firstExecuted = startNode;
         }
         if (chunk.getLastNode() == null) { // Empty chunk, just a marker with nothing after
@@ -143,17 +211,15 @@ public class ChunkVisitor extends StandardChunkVisitor {
     }
 
     public void atomNode(@CheckForNull FlowNode before, @Nonnull FlowNode atomNode, @CheckForNull FlowNode after, @Nonnull ForkScanner scan) {
-        if (NotExecutedNodeAction.isExecuted(atomNode)) {
+        if (nodeStates.isExecuted(atomNode)) {
             firstExecuted = atomNode;
         }
-        long pause = PauseAction.getPauseDuration(atomNode);
+        long pause = nodeStates.getPause(atomNode);
         chunk.setPauseTimeMillis(chunk.getPauseTimeMillis()+pause);
 
-        // TODO this is rather inefficient, we should optimize to use a circular buffer or ArrayList with limited size
-        // And then only create the node container objects when we hit the start (doing timing ETC at that point)
-        AtomFlowNodeExt ext = makeAtomNode(run, before, atomNode, after);
-        if (ext != null) {
-            stageContents.push(ext);
+        // Node objects are only created for the nodes we keep, when we hit the start
+        if (atomNode instanceof AtomNode) {
+            stageContents.add(before, atomNode, after);
         }
         stageNodeIds.add(atomNode.getId());
     }
@@ -167,4 +233,59 @@ public class ChunkVisitor extends StandardChunkVisitor {
         }
         isLastChunk = false;
     }
+
+    /**
+     * Ring buffer of the atom nodes in a stage, with their neighbours, as visited walking backwards.
+     * Keeps the last {@code capacity} visited, i.e. the first ones in time, which is what the stage returns.
+     */
+    static final class AtomNodeBuffer {
+        private final FlowNode[] before;
+        private final FlowNode[] nodes;
+        private final FlowNode[] after;
+        private int next = 0;
+        private int size = 0;
+
+        AtomNodeBuffer(int capacity) {
+            capacity = Math.max(0, capacity);
+            before = new FlowNode[capacity];
+            nodes = new FlowNode[capacity];
+            after = new FlowNode[capacity];
+        }
+
+        void add(@CheckForNull FlowNode beforeNode, @Nonnull FlowNode node, @CheckForNull FlowNode afterNode) {
+            if (nodes.length == 0) {
+                return;
+            }
+            before[next] = beforeNode;
+            nodes[next] = node;
+            after[next] = afterNode;
+            next = (next + 1) % nodes.length;
+            size = Math.min(size + 1, nodes.length);
+        }
+
+        int size() {
+            return size;
+        }
+
+        /** Create the node objects, in execution order */
+        List<AtomFlowNodeExt> materialize(@Nonnull ChunkVisitor visitor) {
+            ArrayList<AtomFlowNodeExt> output = new ArrayList<AtomFlowNodeExt>(size);
+            for (int i = 1; i <= size; i++) {
+                int index = (next - i + nodes.length) % nodes.length;  // Most recently visited is the earliest
+                AtomFlowNodeExt ext = visitor.makeAtomNode(before[index], nodes[index], after[index]);
+                if (ext != null) {
+                    output.add(ext);
+                }
+            }
+            return output;
+        }
+
+        void clear() {
+            Arrays.fill(before, null);
+            Arrays.fill(nodes, null);
+            Arrays.fill(after, null);
+            next = 0;
+            size = 0;
+        }
+    }
 }
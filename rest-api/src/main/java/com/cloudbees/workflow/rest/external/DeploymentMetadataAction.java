@@ -0,0 +1,159 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import hudson.Extension;
+import hudson.model.InvisibleAction;
+import hudson.model.listeners.RunListener;
+import jenkins.util.Timer;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.io.IOException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * What the runs listing shows of a deployment, recorded once a run has completed: its environment, where it was
+ * promoted from, and the branch, repository and last commit it was built from, along with the run that last commit
+ * was found in.
+ * <p>
+ * Deriving these means computing the run's environment, reflecting into the SCM plugin's data and parsing the
+ * changelog, which {@link JobExt} would otherwise do for every listed run on every poll. Runs that completed
+ * before this action existed do not get it: {@link JobExt} works theirs out as it lists them, without saving it.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public class DeploymentMetadataAction extends InvisibleAction {
+
+    private static final Logger LOGGER = Logger.getLogger(DeploymentMetadataAction.class.getName());
+
+    private final String environment;
+    private final String promoteFromEnvironment;
+    private final String promoteFromVersion;
+    private final String branch;
+    private final String scmUrl;
+    private final String lastCommitId;
+    private final Integer changeSetRun;
+
+    public DeploymentMetadataAction(String environment, String promoteFromEnvironment, String promoteFromVersion,
+                                    String branch, String scmUrl, String lastCommitId, Integer changeSetRun) {
+        this.environment = environment;
+        this.promoteFromEnvironment = promoteFromEnvironment;
+        this.promoteFromVersion = promoteFromVersion;
+        this.branch = branch;
+        this.scmUrl = scmUrl;
+        this.lastCommitId = lastCommitId;
+        this.changeSetRun = changeSetRun;
+    }
+
+    public String getEnvironment() {
+        return environment;
+    }
+
+    public String getPromoteFromEnvironment() {
+        return promoteFromEnvironment;
+    }
+
+    public String getPromoteFromVersion() {
+        return promoteFromVersion;
+    }
+
+    public String getBranch() {
+        return branch;
+    }
+
+    /** Repository the last commit came from, if known */
+    public String getScmUrl() {
+        return scmUrl;
+    }
+
+    public String getLastCommitId() {
+        return lastCommitId;
+    }
+
+    /**
+     * Build number of the run the last change set is read from: this run, or the run it was promoted from.
+     * Null if there is no change set.
+     */
+    @CheckForNull
+    public Integer getChangeSetRun() {
+        return changeSetRun;
+    }
+
+    /** Whether the change set can be read from {@link #getChangeSetRun()}, false for runs recorded before it was */
+    public boolean isChangeSetRecorded() {
+        return lastCommitId == null || changeSetRun != null;
+    }
+
+    /** The recorded metadata, or null if the run is still building or was never recorded */
+    @CheckForNull
+    public static DeploymentMetadataAction get(@Nonnull WorkflowRun run) {
+        if (run.isBuilding()) {
+            return null;
+        }
+        return run.getAction(DeploymentMetadataAction.class);
+    }
+
+    /** Attach the metadata to a completed run and persist it. */
+    static void record(@Nonnull WorkflowRun run, @Nonnull DeploymentMetadataAction metadata) {
+        if (run.isBuilding()) {
+            return;
+        }
+        run.addOrReplaceAction(metadata);
+        try {
+            run.save();
+        } catch (IOException ioe) {
+            LOGGER.log(Level.FINE, "Unable to save deployment metadata of " + run.getExternalizableId(), ioe);
+        }
+    }
+
+    /** Records the metadata of runs as they complete, off the executor thread. */
+    @Extension
+    public static class Recorder extends RunListener<WorkflowRun> {
+
+        public Recorder() {
+            super(WorkflowRun.class);
+        }
+
+        @Override
+        public void onFinalized(final WorkflowRun run) {
+            Timer.get().submit(new Runnable() {
+                @Override
+                public void run() {
+                    if (get(run) == null) {
+                        try {
+                            record(run, JobExt.createMetadata(run));
+                        } catch (RuntimeException e) {
+                            LOGGER.log(Level.FINE, "Unable to record deployment metadata of " + run.getExternalizableId(), e);
+                        }
+                    }
+                }
+            });
+        }
+    }
+}
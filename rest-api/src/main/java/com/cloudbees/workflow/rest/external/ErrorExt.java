@@ -68,4 +68,12 @@ public class ErrorExt {
         return errorExt;
     }
 
+    /** Error without a Throwable behind it, e.g. a failure we infer rather than one that was thrown */
+    public static ErrorExt create(String message, String type) {
+        ErrorExt errorExt = new ErrorExt();
+        errorExt.setMessage(message);
+        errorExt.setType(type);
+        return errorExt;
+    }
+
 }
@@ -38,6 +38,7 @@ import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StatusAndTiming;
 import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.TimingInfo;
 import org.jenkinsci.plugins.workflow.support.actions.PauseAction;
 
+import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import java.io.IOException;
 
@@ -189,6 +190,12 @@ public class FlowNodeExt {
 
     // Allows for passing in a node with all the key information filled in
     public void addBasicNodeData(FlowNode node, String execNodeName, ExecDuration duration, long startTimeMillis, StatusExt status, ErrorAction error) {
+        ErrorExt errorExt = (status != StatusExt.NOT_EXECUTED && error != null) ? ErrorExt.create(error) : null;
+        addBasicNodeData(node, execNodeName, duration, startTimeMillis, status, errorExt);
+    }
+
+    /** Same, with the error already converted */
+    public void addBasicNodeData(FlowNode node, String execNodeName, ExecDuration duration, long startTimeMillis, StatusExt status, @CheckForNull ErrorExt error) {
 
         setId(node.getId());
         setName(node.getDisplayName());
@@ -197,7 +204,7 @@ public class FlowNodeExt {
         get_links().initSelf(Describe.getUrl(node));
         setStatus(status);
         if (status != StatusExt.NOT_EXECUTED && error != null) {
-            setError(ErrorExt.create(error));
+            setError(error);
         }
 
         this.setStartTimeMillis(startTimeMillis);
@@ -23,35 +23,51 @@
  */
 package com.cloudbees.workflow.rest.external;
 
+import com.cloudbees.workflow.flownode.CommitIndex;
+import com.cloudbees.workflow.flownode.RunEnvironmentCache;
 import com.cloudbees.workflow.rest.endpoints.JobAPI;
 import com.cloudbees.workflow.rest.hal.Link;
 import com.cloudbees.workflow.rest.hal.Links;
+import com.cloudbees.workflow.util.ReflectUtil;
 import com.fasterxml.jackson.annotation.JsonInclude;
-import com.google.common.base.Charsets;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
-import com.google.common.io.Files;
 import hudson.EnvVars;
-import hudson.model.Run;
+import hudson.security.ACL;
+import hudson.security.ACLContext;
 import hudson.scm.ChangeLogSet;
 import hudson.scm.RepositoryBrowser;
 import hudson.scm.SCM;
-import hudson.util.LogTaskListener;
+import hudson.util.DaemonThreadFactory;
+import hudson.util.NamingThreadFactory;
 import hudson.util.RunList;
+import jenkins.model.Jenkins;
+import org.acegisecurity.Authentication;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.annotation.CheckForNull;
 import java.io.File;
 import java.io.IOException;
-import java.lang.reflect.Field;
 import java.net.URL;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Objects;
-import java.util.logging.Level;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
@@ -61,10 +77,37 @@ public class JobExt {
     private static final Logger LOGGER = LoggerFactory.getLogger(JobExt.class);
 
     /**
-     * Max number of runs per page. Pagination not yet supported.
+     * Max number of runs per page, unless a page size is asked for.
      */
     public static final int MAX_RUNS_PER_JOB = Integer.getInteger(JobExt.class.getName() + ".maxRunsPerJob", 10);
 
+    /**
+     * Max page size that can be asked for with {@link #page}.
+     */
+    public static final int MAX_PAGE_SIZE = Integer.getInteger(JobExt.class.getName() + ".maxPageSize", 200);
+
+    /**
+     * Threads computing the runs of a page, shared by all requests.
+     */
+    static final int THREADS = Integer.getInteger(JobExt.class.getName() + ".threads", Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Time limit for a page of runs, after which only the runs computed so far are returned.
+     */
+    public static final long TIMEOUT_MILLIS = Long.getLong(JobExt.class.getName() + ".timeoutMillis", 30000L);
+
+    private static final ThreadPoolExecutor EXECUTOR;
+
+    static {
+        int threads = Math.max(1, THREADS);
+        // Runs a page's work on the request thread rather than queue without bound when saturated
+        EXECUTOR = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<Runnable>(threads * Math.max(1, MAX_RUNS_PER_JOB)),
+                new NamingThreadFactory(new DaemonThreadFactory(), "JobExt runs"),
+                new ThreadPoolExecutor.CallerRunsPolicy());
+        EXECUTOR.allowCoreThreadTimeOut(true);
+    }
+
     private JobLinks _links;
     private String name;
     private int runCount;
@@ -140,6 +183,40 @@ public class JobExt {
     }
 
     public static List<RunExt> create(List<WorkflowRun> runs, String since, boolean fullStages) {
+        return createPage(sincePage(runs, since), fullStages);
+    }
+
+    /** Like {@link #createPage(List, boolean, RunSink)}, collected in a list */
+    public static List<RunExt> createPage(List<WorkflowRun> page, boolean fullStages) {
+        final List<RunExt> runsExt = new ArrayList<RunExt>();
+        try {
+            boolean complete = createPage(page, fullStages, new RunSink() {
+                @Override
+                public void accept(RunExt run) {
+                    runsExt.add(run);
+                }
+            });
+            return complete ? runsExt : new PartialRunList(runsExt);
+        } catch (IOException ioe) {
+            throw new IllegalStateException("Collecting runs in a list cannot fail", ioe);
+        }
+    }
+
+    /** Receives the runs of a page, in order */
+    public interface RunSink {
+        void accept(RunExt run) throws IOException;
+    }
+
+    /**
+     * Like {@link #create(List, String, boolean)}, but hands each run over as soon as it and the ones before it
+     * are computed, so it can be written out right away.
+     * @return False if runs were left out because of the time limit
+     */
+    public static boolean create(List<WorkflowRun> runs, String since, boolean fullStages, RunSink sink) throws IOException {
+        return createPage(sincePage(runs, since), fullStages, sink);
+    }
+
+    private static List<WorkflowRun> sincePage(List<WorkflowRun> runs, String since) {
         if (since != null) {
             since = since.trim();
             if (since.length() == 0) {
@@ -147,66 +224,237 @@ public class JobExt {
             }
         }
 
-        List<RunExt> runsExt = new ArrayList<RunExt>();
-        for (int i = 0; i < runs.size(); i++) {
-            WorkflowRun run = runs.get(i);
-            RunExt runExt = (fullStages) ? RunExt.create(run) : RunExt.create(run).createWrapper();
-            runExt.setJobName(jobName(run));
-
+        // Runs on the page: up to and including "since", no point returning a huge list of runs (see #page for more).
+        // Iterated rather than copied, so that the older runs are not even loaded.
+        List<WorkflowRun> page = new ArrayList<WorkflowRun>();
+        for (WorkflowRun run : runs) {
+            page.add(run);
+            if ((since != null && run.getDisplayName().equals(since)) || page.size() > MAX_RUNS_PER_JOB) {
+                break;
+            }
+        }
+        return page;
+    }
 
-            ChangeLogSet<? extends ChangeLogSet.Entry> lastChangeLogSet = lastChangeSet(runs, i);
-            ChangeSetExt lastChangeSet = lastChangeLogSet == null ? null : ChangeSetExt.create(lastChangeLogSet, (WorkflowRun) lastChangeLogSet.getRun());
-            runExt.setChangeSet(lastChangeSet);
-            if (lastChangeLogSet != null) {
-                runExt.setChangeSets(getChangeSets((WorkflowRun) lastChangeLogSet.getRun()).stream().map(changeSet -> ChangeSetExt.create(changeSet, run)).collect(Collectors.toList()));
-            } else {
-                runExt.setChangeSets(new ArrayList<>());
+    /**
+     * One page of the runs of a job, newest first: the runs just older than {@code before}, or else just newer
+     * than {@code after}, or else the newest runs. Only the runs on the page are loaded.
+     * @param limit Page size, capped at {@link #MAX_PAGE_SIZE}
+     */
+    public static List<WorkflowRun> page(WorkflowJob job, @CheckForNull Integer before, @CheckForNull Integer after, int limit) {
+        limit = Math.min(limit, MAX_PAGE_SIZE);
+        List<WorkflowRun> page = new ArrayList<WorkflowRun>(Math.max(0, limit));
+        if (before == null && after != null) {
+            WorkflowRun run = (after < Integer.MAX_VALUE) ? job.getNearestBuild(after + 1) : null;
+            while (run != null && page.size() < limit) {
+                page.add(run);
+                run = run.getNextBuild();
             }
-            try {
-                EnvVars environment = run.getEnvironment(new LogTaskListener(null, Level.INFO));
-                runExt.setEnvironment(environment.get("ENVIRONMENT"));
-                runExt.setPromoteFromEnvironment(environment.get("PROMOTE_FROM_ENVIRONMENT"));
-                runExt.setPromoteFromVersion(environment.get("PROMOTE_FROM_VERSION"));
-            } catch (IOException | InterruptedException e) {
+            Collections.reverse(page);
+        } else {
+            WorkflowRun run = (before != null) ? job.getNearestOldBuild(before - 1) : job.getLastBuild();
+            while (run != null && page.size() < limit) {
+                page.add(run);
+                run = run.getPreviousBuild();
             }
+        }
+        return page;
+    }
 
-            if (lastChangeLogSet == null) {
-                List<SCM> scms = scms(run);
-                if (!scms.isEmpty()) {
-                    runExt.setBranch(branch(scms.get(0), run).replaceAll("\\*/", ""));
-                }
-            } else {
-                Map<String, String> commitSources = commitSources((WorkflowRun) lastChangeLogSet.getRun());
-                ChangeSetExt.Commit lastCommit = lastChangeSet.getCommits().get(0);
-                String commitURL = commitSources.get(lastCommit.getCommitId());
-
-                List<SCM> scms = scms((WorkflowRun) lastChangeLogSet.getRun());
-                for (SCM scm : scms) {
-                    String scmURL = url(scm);
-                    if (Objects.equals(commitURL, scmURL)) {
-                        runExt.setBranch(branch(scm, run).replaceAll("\\*/", ""));
-                        break;
+    /**
+     * Hands each run of the page over as soon as it and the ones before it are computed.
+     * @return False if runs were left out because of the time limit
+     */
+    public static boolean createPage(final List<WorkflowRun> page, boolean fullStages, RunSink sink) throws IOException {
+        return createPage(page, fullStages, sink, TIMEOUT_MILLIS);
+    }
+
+    /** Like {@link #createPage(List, boolean, RunSink)}, with another time limit than {@link #TIMEOUT_MILLIS} */
+    public static boolean createPage(final List<WorkflowRun> page, boolean fullStages, RunSink sink, long timeoutMillis) throws IOException {
+        int pageSize = page.size();
+        final RunsByNumber byNumber = new RunsByNumber(page);
+        if (pageSize <= 1 || THREADS <= 1) {
+            for (WorkflowRun run : page) {
+                sink.accept(createRun(byNumber, run, fullStages));
+            }
+            return true;
+        }
+
+        // Each run is independent, compute them side by side as the caller
+        final Authentication auth = Jenkins.getAuthentication();
+        final boolean withStages = fullStages;
+        List<Future<RunExt>> futures = new ArrayList<Future<RunExt>>(pageSize);
+        for (int i = 0; i < pageSize; i++) {
+            final WorkflowRun run = page.get(i);
+            futures.add(EXECUTOR.submit(new Callable<RunExt>() {
+                @Override
+                public RunExt call() {
+                    try (ACLContext ctx = ACL.as(auth)) {
+                        return createRun(byNumber, run, withStages);
                     }
                 }
+            }));
+        }
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+        int done = 0;
+        try {
+            for (Future<RunExt> future : futures) {
+                sink.accept(future.get(Math.max(0, deadline - System.nanoTime()), TimeUnit.NANOSECONDS));
+                done++;
             }
+            return true;
+        } catch (TimeoutException te) {
+            // Slow runs still get cached when done, for the next request
+            LOGGER.debug("Returning {} of {} runs, the others took longer than {}ms", done, pageSize, timeoutMillis);
+            return false;
+        } catch (InterruptedException ie) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (ExecutionException ee) {
+            Throwable cause = ee.getCause();
+            throw (cause instanceof RuntimeException) ? (RuntimeException) cause : new RuntimeException(cause);
+        } finally {
+            for (Future<RunExt> future : futures) {
+                future.cancel(false);
+            }
+        }
+    }
 
-            runsExt.add(runExt);
-            if (since != null && runExt.getName().equals(since)) {
-                break;
-            } else if (runsExt.size() > MAX_RUNS_PER_JOB) {
-                // We don't yet support pagination, so no point
-                // returning a huge list of runs.
-                break;
+    /** Whether runs returned by {@link #create(List, String, boolean)} or {@link #createPage(List, boolean)} were left out because of the time limit */
+    public static boolean isPartial(List<RunExt> runs) {
+        return runs instanceof PartialRunList;
+    }
+
+    private static final class PartialRunList extends ArrayList<RunExt> {
+        PartialRunList(List<RunExt> runs) {
+            super(runs);
+        }
+    }
+
+    /** The runs of a request by build number, looking up any other run of the job the first time it is asked for */
+    private static final class RunsByNumber {
+        private final WorkflowJob job;
+        private final ConcurrentMap<Integer, WorkflowRun> runs = new ConcurrentHashMap<Integer, WorkflowRun>();
+
+        RunsByNumber(List<WorkflowRun> runs) {
+            this.job = runs.isEmpty() ? null : runs.get(0).getParent();
+            for (WorkflowRun run : runs) {
+                this.runs.put(run.getNumber(), run);
+            }
+        }
+
+        @CheckForNull
+        WorkflowRun get(int number) {
+            WorkflowRun run = runs.get(number);
+            if (run == null && job != null) {
+                run = job.getBuildByNumber(number);
+                if (run != null) {
+                    runs.putIfAbsent(number, run);
+                }
             }
+            return run;
+        }
+    }
+
+    private static RunExt createRun(RunsByNumber runs, WorkflowRun run, boolean fullStages) {
+        // Always a wrapper, the fields set below must not leak into the cached run
+        RunExt runExt = (fullStages) ? RunExt.create(run).createFullWrapper() : RunExt.create(run).createWrapper();
+        runExt.setJobName(jobName(run));
+
+        // Recorded once the run completed. The recorded run the change set came from spares following promotions on
+        // every poll. Runs that completed before it was recorded are worked out here, and left as they are: listing
+        // runs must not write to them.
+        DeploymentMetadataAction metadata = DeploymentMetadataAction.get(run);
+        boolean recorded = metadata != null && metadata.isChangeSetRecorded();
+        ChangeLogSet<? extends ChangeLogSet.Entry> lastChangeLogSet = recorded ? recordedChangeSet(runs, metadata) : lastChangeSet(runs, run);
+        ChangeSetExt lastChangeSet = lastChangeLogSet == null ? null : ChangeSetExt.create(lastChangeLogSet, (WorkflowRun) lastChangeLogSet.getRun());
+        runExt.setChangeSet(lastChangeSet);
+        if (lastChangeLogSet != null) {
+            runExt.setChangeSets(getChangeSets((WorkflowRun) lastChangeLogSet.getRun()).stream().map(changeSet -> ChangeSetExt.create(changeSet, run)).collect(Collectors.toList()));
+        } else {
+            runExt.setChangeSets(new ArrayList<>());
+        }
+
+        if (!recorded) {
+            metadata = createMetadata(run, lastChangeLogSet, lastChangeSet);
+        }
+        runExt.setEnvironment(metadata.getEnvironment());
+        runExt.setPromoteFromEnvironment(metadata.getPromoteFromEnvironment());
+        runExt.setPromoteFromVersion(metadata.getPromoteFromVersion());
+        runExt.setBranch(metadata.getBranch());
+
+        return runExt;
+    }
+
+    /** Deployment metadata of a run, in the context of the other runs of its job */
+    static DeploymentMetadataAction createMetadata(WorkflowRun run) {
+        ChangeLogSet<? extends ChangeLogSet.Entry> lastChangeLogSet = lastChangeSet(new RunsByNumber(Collections.singletonList(run)), run);
+        ChangeSetExt lastChangeSet = lastChangeLogSet == null ? null : ChangeSetExt.create(lastChangeLogSet, (WorkflowRun) lastChangeLogSet.getRun());
+        return createMetadata(run, lastChangeLogSet, lastChangeSet);
+    }
+
+    private static DeploymentMetadataAction createMetadata(WorkflowRun run, ChangeLogSet<? extends ChangeLogSet.Entry> lastChangeLogSet, ChangeSetExt lastChangeSet) {
+        String environment = null;
+        String promoteFromEnvironment = null;
+        String promoteFromVersion = null;
+        try {
+            EnvVars vars = RunEnvironmentCache.get(run);
+            environment = vars.get("ENVIRONMENT");
+            promoteFromEnvironment = vars.get("PROMOTE_FROM_ENVIRONMENT");
+            promoteFromVersion = vars.get("PROMOTE_FROM_VERSION");
+        } catch (IOException | InterruptedException e) {
+        }
+
+        String branch = null;
+        String scmUrl = null;
+        String lastCommitId = null;
+        if (lastChangeLogSet == null) {
+            List<SCM> scms = scms(run);
+            if (scms != null && !scms.isEmpty()) {
+                branch = branch(scms.get(0), run);
+                scmUrl = url(scms.get(0));
+            }
+        } else {
+            Map<String, String> commitSources = commitSources((WorkflowRun) lastChangeLogSet.getRun());
+            ChangeSetExt.Commit lastCommit = lastChangeSet.getCommits().get(0);
+            lastCommitId = lastCommit.getCommitId();
+            String commitURL = commitSources.get(lastCommitId);
+
+            List<SCM> scms = scms((WorkflowRun) lastChangeLogSet.getRun());
+            for (SCM scm : (scms == null) ? Collections.<SCM>emptyList() : scms) {
+                String url = url(scm);
+                if (Objects.equals(commitURL, url)) {
+                    branch = branch(scm, run);
+                    scmUrl = url;
+                    break;
+                }
+            }
+        }
+        if (branch != null) {
+            branch = branch.replaceAll("\\*/", "");
+        }
+        Integer changeSetRun = (lastChangeLogSet == null) ? null : lastChangeLogSet.getRun().getNumber();
+        return new DeploymentMetadataAction(environment, promoteFromEnvironment, promoteFromVersion, branch, scmUrl, lastCommitId, changeSetRun);
+    }
+
+    /** The last change set of the run it was recorded from, or null if there was none or that run is gone */
+    @CheckForNull
+    private static ChangeLogSet<? extends ChangeLogSet.Entry> recordedChangeSet(RunsByNumber runs, DeploymentMetadataAction metadata) {
+        if (metadata.getChangeSetRun() == null) {
+            return null;
+        }
+        WorkflowRun source = runs.get(metadata.getChangeSetRun());
+        if (source == null) {
+            return null;
         }
-        return runsExt;
+        List<ChangeLogSet<? extends ChangeLogSet.Entry>> changeSets = getChangeSets(source);
+        return changeSets.isEmpty() ? null : lastChangeSet(changeSets);
     }
 
     private static String jobName(WorkflowRun run) {
         try {
-            Field projectField = Run.class.getDeclaredField("project");
-            projectField.setAccessible(true);
-            WorkflowJob job = (WorkflowJob) projectField.get(run);
+            WorkflowJob job = (WorkflowJob) ReflectUtil.get(run, "project");
             return job.getName();
         } catch (Exception e) {
             return null;
@@ -215,15 +463,11 @@ public class JobExt {
 
     private static List<SCM> scms(WorkflowRun run) {
         try {
-            Field checkoutsFields = run.getClass().getDeclaredField("checkouts");
-            checkoutsFields.setAccessible(true);
-            List<Object> checkoutList = (List<Object>) checkoutsFields.get(run);
+            List<Object> checkoutList = (List<Object>) ReflectUtil.get(run, "checkouts");
             List<SCM> scms = new ArrayList<>();
 
             for (Object checkout : checkoutList) {
-                Field scmField = checkout.getClass().getDeclaredField("scm");
-                scmField.setAccessible(true);
-                SCM scm = (SCM) scmField.get(checkout);
+                SCM scm = (SCM) ReflectUtil.get(checkout, "scm");
                 String url = url(scm);
                 if (url != null && !isCMSExcluded(url)) {
                     scms.add(scm);
@@ -242,14 +486,10 @@ public class JobExt {
             }
 
             String branch = null;
-            Field branchesField = scm.getClass().getDeclaredField("branches");
-            branchesField.setAccessible(true);
-            List<Object> configs = (List<Object>) branchesField.get(scm);
+            List<Object> configs = (List<Object>) ReflectUtil.get(scm, "branches");
             if (!configs.isEmpty()) {
                 Object branchSpec = configs.get(0);
-                Field nameField = branchSpec.getClass().getDeclaredField("name");
-                nameField.setAccessible(true);
-                branch = (String) nameField.get(branchSpec);
+                branch = (String) ReflectUtil.get(branchSpec, "name");
             }
 
             if (branch != null && branch.startsWith("$")) {
@@ -258,7 +498,7 @@ public class JobExt {
                     branch = branch.substring(1, branch.length() - 1);
                 }
                 try {
-                    EnvVars environment = run.getEnvironment(new LogTaskListener(null, Level.INFO));
+                    EnvVars environment = RunEnvironmentCache.get(run);
                     branch = environment.get(branch);
                 } catch (Exception e) {
                     branch = null;
@@ -280,14 +520,10 @@ public class JobExt {
             if (scm == null) {
                 return null;
             }
-            Field userRemoteConfigsField = scm.getClass().getDeclaredField("userRemoteConfigs");
-            userRemoteConfigsField.setAccessible(true);
-            List<Object> userRemoteConfigs = (List<Object>) userRemoteConfigsField.get(scm);
+            List<Object> userRemoteConfigs = (List<Object>) ReflectUtil.get(scm, "userRemoteConfigs");
             if (!userRemoteConfigs.isEmpty()) {
                 Object userRemoteConfig = userRemoteConfigs.get(0);
-                Field urlField = userRemoteConfig.getClass().getDeclaredField("url");
-                urlField.setAccessible(true);
-                return (String) urlField.get(userRemoteConfig);
+                return (String) ReflectUtil.get(userRemoteConfig, "url");
             }
             return null;
         } catch (Exception e) {
@@ -295,38 +531,24 @@ public class JobExt {
         }
     }
 
-    private static ChangeLogSet<? extends ChangeLogSet.Entry> lastChangeSet(List<WorkflowRun> runs, int currentIndex) {
+    /**
+     * The last change set of the run, or of the run it was promoted from.
+     */
+    private static ChangeLogSet<? extends ChangeLogSet.Entry> lastChangeSet(RunsByNumber runs, WorkflowRun run) {
         try {
-            WorkflowRun run = runs.get(currentIndex);
-            if (isPromotedVersion(run)) {
-                int version = promotedVersion(run);
-                for (int i = 0; i < runs.size(); i++) {
-                    WorkflowRun workflowRun = runs.get(i);
-                    if (workflowRun.getNumber() == version) {
-                        return lastChangeSet(runs, i);
-                    }
+            Set<Integer> visited = new HashSet<Integer>();
+            while (visited.add(run.getNumber()) && isPromotedVersion(run)) {
+                WorkflowRun promoted = runs.get(promotedVersion(run));
+                if (promoted == null) {
+                    break;
                 }
+                run = promoted;
             }
 
-            EnvVars vars = run.getEnvironment(new LogTaskListener(null, Level.INFO));
-            String env = vars.get("ENVIRONMENT");
+            // The loop over earlier runs in the same environment this used to go through tested this run's
+            // (empty) change sets, so it never found any: only its cost is dropped
             List<ChangeLogSet<? extends ChangeLogSet.Entry>> changeSets = getChangeSets(run);
-            if (changeSets.isEmpty()) {
-                if (run.isBuilding()) {
-                    return null;
-                }
-                for (int i = currentIndex + 1; i < runs.size(); i++) {
-                    WorkflowRun previousRun = runs.get(i);
-                    EnvVars previousVars = previousRun.getEnvironment(new LogTaskListener(null, Level.INFO));
-                    String previousEnv = previousVars.get("ENVIRONMENT");
-                    if (Objects.equals(env, previousEnv) && !changeSets.isEmpty()) {
-                        return lastChangeSet(changeSets);
-                    }
-                }
-                return null;
-            } else {
-                return lastChangeSet(changeSets);
-            }
+            return changeSets.isEmpty() ? null : lastChangeSet(changeSets);
         } catch (Exception e) {
             LOGGER.error("failed to get last change set", e);
             return null;
@@ -341,9 +563,7 @@ public class JobExt {
             if (items.length > 0) {
                 Object item = items[items.length - 1];
                 try {
-                    Field committerTimeField = item.getClass().getDeclaredField("committerTime");
-                    committerTimeField.setAccessible(true);
-                    String committerTime = (String) committerTimeField.get(item);
+                    String committerTime = (String) ReflectUtil.get(item, "committerTime");
                     if (latestChangeSetCommitterTime == null) {
                         latestChangeSetCommitterTime = committerTime;
                         latestChangeSet = changeSet;
@@ -381,9 +601,7 @@ public class JobExt {
         }
         Object item = items[0];
         try {
-            Field idField = item.getClass().getDeclaredField("id");
-            idField.setAccessible(true);
-            Object id = idField.get(item);
+            Object id = ReflectUtil.get(item, "id");
             if (id == null) {
                 return null;
             }
@@ -430,52 +648,39 @@ public class JobExt {
         return url.contains("/jenkins-project-config") || url.contains("/k8s-scripts");
     }
 
-    private static Map<String, String> commitSources(WorkflowRun run) {
-        Map<String, String> commitSources = Maps.newHashMap();
-        try {
-            Field checkoutsFields = run.getClass().getDeclaredField("checkouts");
-            checkoutsFields.setAccessible(true);
-            List<Object> checkoutList = (List<Object>) checkoutsFields.get(run);
-            for (Object checkout : checkoutList) {
-                Field scmField = checkout.getClass().getDeclaredField("scm");
-                scmField.setAccessible(true);
-                SCM scm = (SCM) scmField.get(checkout);
-                String url = url(scm);
-
-                Field changelogFileField = checkout.getClass().getDeclaredField("changelogFile");
-                changelogFileField.setAccessible(true);
-                Object file = changelogFileField.get(checkout);
-                List<String> commits = readCommitLogfile(file);
-
-                for (String commit : commits) {
-                    commitSources.put(commit, url);
-                }
-            }
-        } catch (Exception e) {
-        }
-        return commitSources;
-    }
-
-    private static List<String> readCommitLogfile(Object file) {
-        List<String> commits = Lists.newArrayList();
-        if (file instanceof File) {
-            try {
-                List<String> lines = Files.readLines((File) file, Charsets.UTF_8);
-                for (String line : lines) {
-                    if (line.startsWith("commit ")) {
-                        commits.add(line.substring("commit ".length()).trim());
+    private static Map<String, String> commitSources(final WorkflowRun run) {
+        return CommitIndex.get(run, new Callable<Map<String, String>>() {
+            @Override
+            public Map<String, String> call() {
+                Map<String, String> commitSources = Maps.newHashMap();
+                try {
+                    List<Object> checkoutList = (List<Object>) ReflectUtil.get(run, "checkouts");
+                    for (Object checkout : checkoutList) {
+                        SCM scm = (SCM) ReflectUtil.get(checkout, "scm");
+                        String url = url(scm);
+
+                        Object file = ReflectUtil.get(checkout, "changelogFile");
+                        if (!(file instanceof File)) {
+                            continue;
+                        }
+                        try {
+                            for (String commit : CommitIndex.commitIds((File) file)) {
+                                commitSources.put(commit, url);
+                            }
+                        } catch (IOException e) {
+                            LOGGER.warn("failed to read changelog " + file, e);
+                        }
                     }
+                } catch (Exception e) {
                 }
-            } catch (IOException e) {
-                e.printStackTrace();
+                return commitSources;
             }
-        }
-        return commits;
+        });
     }
 
     private static int promotedVersion(WorkflowRun run) {
         try {
-            EnvVars environment = run.getEnvironment(new LogTaskListener(null, Level.INFO));
+            EnvVars environment = RunEnvironmentCache.get(run);
             Object promoteFromVersion = environment.get("PROMOTE_FROM_VERSION");
             return Integer.parseInt(promoteFromVersion.toString());
         } catch (Exception e) {
@@ -485,7 +690,7 @@ public class JobExt {
 
     private static boolean isPromotedVersion(WorkflowRun run) {
         try {
-            EnvVars environment = run.getEnvironment(new LogTaskListener(null, Level.INFO));
+            EnvVars environment = RunEnvironmentCache.get(run);
             return environment.containsKey("PROMOTE_FROM_VERSION");
         } catch (Exception e) {
             return false;
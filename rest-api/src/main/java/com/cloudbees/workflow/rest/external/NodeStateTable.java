@@ -0,0 +1,148 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import org.jenkinsci.plugins.workflow.actions.NotExecutedNodeAction;
+import org.jenkinsci.plugins.workflow.actions.TimingAction;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.support.actions.PauseAction;
+
+import javax.annotation.Nonnull;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The per-node facts that status and timing are computed from (start time, pause, error, executed), read once
+ * per node during a scan and kept in primitive arrays indexed by node id.
+ * <p>
+ * Each node is otherwise looked up several times: as the node itself, as the node after its predecessor and as
+ * the boundary of its stage. Every lookup goes through the node's action list. Node ids are normally sequential
+ * integers; any that are not go to a map.
+ * </p>
+ */
+final class NodeStateTable {
+
+    private static final byte KNOWN = 1;
+    private static final byte EXECUTED = 2;
+    private static final byte ERROR = 4;
+
+    private long[] startTimes;
+    private long[] pauses;
+    private byte[] flags;
+
+    private Map<String, long[]> otherNodes;
+
+    NodeStateTable() {
+        this(256);
+    }
+
+    NodeStateTable(int expectedNodes) {
+        startTimes = new long[expectedNodes];
+        pauses = new long[expectedNodes];
+        flags = new byte[expectedNodes];
+    }
+
+    /** Start time of the node, per its {@link TimingAction} */
+    long getStartTime(@Nonnull FlowNode node) {
+        int index = index(node);
+        if (index < 0) {
+            return other(node)[0];
+        }
+        return startTimes[index];
+    }
+
+    /** Time the node spent paused, per its {@link PauseAction} */
+    long getPause(@Nonnull FlowNode node) {
+        int index = index(node);
+        if (index < 0) {
+            return other(node)[1];
+        }
+        return pauses[index];
+    }
+
+    boolean isExecuted(@Nonnull FlowNode node) {
+        return (getFlags(node) & EXECUTED) != 0;
+    }
+
+    boolean hasError(@Nonnull FlowNode node) {
+        return (getFlags(node) & ERROR) != 0;
+    }
+
+    private byte getFlags(FlowNode node) {
+        int index = index(node);
+        if (index < 0) {
+            return (byte) other(node)[2];
+        }
+        return flags[index];
+    }
+
+    /** Index in the arrays, reading the node's state the first time, or -1 if the id is not a number. */
+    private int index(FlowNode node) {
+        int id;
+        try {
+            id = Integer.parseInt(node.getId());
+        } catch (NumberFormatException nfe) {
+            return -1;
+        }
+        if (id < 0) {
+            return -1;
+        }
+        if (id >= flags.length) {
+            int newLength = Math.max(id + 1, flags.length * 2);
+            startTimes = Arrays.copyOf(startTimes, newLength);
+            pauses = Arrays.copyOf(pauses, newLength);
+            flags = Arrays.copyOf(flags, newLength);
+        }
+        if (flags[id] == 0) {
+            startTimes[id] = TimingAction.getStartTime(node);
+            pauses[id] = PauseAction.getPauseDuration(node);
+            flags[id] = readFlags(node);
+        }
+        return id;
+    }
+
+    private long[] other(FlowNode node) {
+        if (otherNodes == null) {
+            otherNodes = new HashMap<String, long[]>();
+        }
+        long[] state = otherNodes.get(node.getId());
+        if (state == null) {
+            state = new long[]{TimingAction.getStartTime(node), PauseAction.getPauseDuration(node), readFlags(node)};
+            otherNodes.put(node.getId(), state);
+        }
+        return state;
+    }
+
+    private static byte readFlags(FlowNode node) {
+        byte nodeFlags = KNOWN;
+        if (NotExecutedNodeAction.isExecuted(node)) {
+            nodeFlags |= EXECUTED;
+        }
+        if (node.getError() != null) {
+            nodeFlags |= ERROR;
+        }
+        return nodeFlags;
+    }
+}
@@ -24,6 +24,9 @@
 package com.cloudbees.workflow.rest.external;
 
 import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.flownode.RunCacheStats;
+import com.cloudbees.workflow.flownode.RunExtSingleFlight;
+import com.cloudbees.workflow.flownode.RunExtSnapshotStore;
 import com.cloudbees.workflow.rest.endpoints.RunAPI;
 import com.cloudbees.workflow.rest.hal.Link;
 import com.cloudbees.workflow.rest.hal.Links;
@@ -41,6 +44,7 @@ import org.jenkinsci.plugins.workflow.support.steps.input.InputStepExecution;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * External API response object for pipeline run
@@ -315,9 +319,16 @@ public class RunExt {
         return new ChildHidingWrapper(this);
     }
 
-    protected static class ChildHidingWrapper extends RunExt {
+    /**
+     * Creates a wrapper of this with the full stage nodes
+     * Use case: setting per-response fields without modifying a cached, shared instance
+     */
+    public RunExt createFullWrapper() {
+        return new RunWrapper(this);
+    }
+
+    protected static class RunWrapper extends RunExt {
         protected RunExt myRun;
-        protected List<StageNodeExt> wrappedStages;
 
         public RunLinks get_links() {
             return myRun.get_links();
@@ -355,12 +366,24 @@ public class RunExt {
             return myRun.getPauseDurationMillis();
         }
 
+        public List<StageNodeExt> getStages() {
+            return myRun.getStages();
+        }
+
+        protected RunWrapper(RunExt run) {
+            this.myRun = run;
+        }
+    }
+
+    protected static class ChildHidingWrapper extends RunWrapper {
+        protected List<StageNodeExt> wrappedStages;
+
         public List<StageNodeExt> getStages() {
             return Collections.unmodifiableList(wrappedStages);
         }
 
         protected ChildHidingWrapper(RunExt run) {
-            this.myRun = run;
+            super(run);
             List<StageNodeExt> myWrappedStages = new ArrayList<StageNodeExt>();
             if (wrappedStages == null) {
                 for (StageNodeExt stage : run.getStages()) {
@@ -373,23 +396,44 @@ public class RunExt {
         }
     }
 
-    public static RunExt create(WorkflowRun run) {
+    public static RunExt create(final WorkflowRun run) {
         FlowExecution execution = run.getExecution();
 
         // Use cache if eligible
-        boolean isNotRunning = FlowNodeUtil.isNotPartOfRunningBuild(execution);
+        final boolean isNotRunning = FlowNodeUtil.isNotPartOfRunningBuild(execution);
         if (isNotRunning) {
             RunExt myRun = FlowNodeUtil.getCachedRun(run);
             if (myRun != null) {
                 return myRun;
             }
         }
-        // Compute the entire flow
-        RunExt myRun = createNew(run);
-        if (isNotRunning) {
-            FlowNodeUtil.cacheRun(run, myRun);
-        }
-        return myRun;
+
+        // Concurrent requests for the same run share one computation
+        return RunExtSingleFlight.compute(run.getExternalizableId(), new Callable<RunExt>() {
+            @Override
+            public RunExt call() {
+                if (isNotRunning) {
+                    // May have been cached by a computation that just finished, the miss was already counted
+                    RunExt myRun = FlowNodeUtil.peekCachedRun(run);
+                    if (myRun != null) {
+                        return myRun;
+                    }
+                    // Survives restarts, so much cheaper than walking the graph again
+                    myRun = RunExtSnapshotStore.load(run);
+                    if (myRun != null) {
+                        FlowNodeUtil.cacheRun(run, myRun);
+                        return myRun;
+                    }
+                }
+                // Compute the entire flow, or for running builds only the part that can still change
+                RunExt myRun = isNotRunning ? createNew(run) : createRunning(run);
+                if (isNotRunning) {
+                    FlowNodeUtil.cacheRun(run, myRun);
+                    RunExtSnapshotStore.save(run, myRun);
+                }
+                return myRun;
+            }
+        });
     }
 
     public String getPromoteFromEnvironment() {
@@ -409,14 +453,44 @@ public class RunExt {
     }
 
     public static RunExt createNew(WorkflowRun run) {
+        long start = System.nanoTime();
+        try {
+            return computeNew(run);
+        } finally {
+            RunCacheStats.COMPUTE_TIMES.record(System.nanoTime() - start);
+        }
+    }
+
+    private static RunExt computeNew(WorkflowRun run) {
         final RunExt runExt = createMinimal(run);
         FlowExecution execution = run.getExecution();
-        if (execution != null) {
+        CachedStageScan scan = (execution != null && execution.isComplete()) ? CachedStageScan.getIfPresent(execution) : null;
+        if (scan != null) {
+            // Run was watched while in progress, only what was still open needs scanning
+            runExt.setStages(scan.finish(run, execution));
+        } else if (execution != null) {
             ChunkVisitor visitor = new ChunkVisitor(run);
             ForkScanner.visitSimpleChunks(execution.getCurrentHeads(), visitor, new StageChunkFinder());
             runExt.setStages(new ArrayList<StageNodeExt>(visitor.stages));
         }
+        return initTimings(run, runExt);
+    }
+
+    /**
+     * Like {@link #createNew(WorkflowRun)}, but reuses the stages of an in-progress run that are already known to be
+     * complete, see {@link CachedStageScan}.
+     */
+    static RunExt createRunning(WorkflowRun run) {
+        final RunExt runExt = createMinimal(run);
+        FlowExecution execution = run.getExecution();
+        if (execution != null) {
+            runExt.setStages(CachedStageScan.of(execution).getStages(run, execution));
+        }
+        return initTimings(run, runExt);
+    }
 
+    /** Run-level timing, once stages are set. */
+    private static RunExt initTimings(WorkflowRun run, RunExt runExt) {
         long currentTimeMillis = System.currentTimeMillis();
         if (runExt.getStatus() == StatusExt.IN_PROGRESS || runExt.getStatus() == StatusExt.PAUSED_PENDING_INPUT) {
             runExt.setEndTimeMillis(currentTimeMillis);
@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.rest.hal.Link;
+import com.cloudbees.workflow.rest.hal.Links;
+import com.fasterxml.jackson.annotation.JsonInclude;
+
+import java.util.List;
+
+/**
+ * A page of the runs of a job, with links to the pages of older and newer runs.
+ */
+public class RunsPageExt {
+
+    private List<RunExt> runs;
+    private Boolean partial;
+    private PageLinks _links;
+
+    public List<RunExt> getRuns() {
+        return runs;
+    }
+
+    public void setRuns(List<RunExt> runs) {
+        this.runs = runs;
+    }
+
+    /** True if runs were left out because of the time limit, the links then continue from the last run returned */
+    public Boolean getPartial() {
+        return partial;
+    }
+
+    @JsonInclude(JsonInclude.Include.NON_NULL)
+    public void setPartial(Boolean partial) {
+        this.partial = partial;
+    }
+
+    public PageLinks get_links() {
+        return _links;
+    }
+
+    public void set_links(PageLinks _links) {
+        this._links = _links;
+    }
+
+    public static final class PageLinks extends Links {
+        private Link next;
+        private Link prev;
+
+        /** Older runs, if there are any */
+        public Link getNext() {
+            return next;
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public void setNext(Link next) {
+            this.next = next;
+        }
+
+        /** Newer runs, if there are any */
+        public Link getPrev() {
+            return prev;
+        }
+
+        @JsonInclude(JsonInclude.Include.NON_NULL)
+        public void setPrev(Link prev) {
+            this.prev = prev;
+        }
+    }
+}
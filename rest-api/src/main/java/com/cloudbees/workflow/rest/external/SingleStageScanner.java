@@ -0,0 +1,85 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.ForkScanner;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StageChunkFinder;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * Computes a single stage without digesting the whole run: the graph is only scanned from the current heads back
+ * to the start of the stage, everything before it is blacklisted.
+ * <p>
+ * Only stages on the main flow are handled this way. For a stage nested in a parallel, the scan would stop partway
+ * through the branches, so callers get null and should use the full {@link RunExt} instead.
+ * </p>
+ */
+@Restricted(NoExternalUse.class)
+public final class SingleStageScanner {
+
+    private SingleStageScanner() {
+    }
+
+    /**
+     * @param run Run the stage belongs to
+     * @param stageStart Start node of the stage
+     * @return The stage, or null if it could not be computed from a partial scan
+     */
+    @CheckForNull
+    public static StageNodeExt scan(@Nonnull WorkflowRun run, @Nonnull FlowNode stageStart) {
+        List<FlowNode> parents = stageStart.getParents();
+        FlowExecution execution = stageStart.getExecution();
+        if (parents.isEmpty()) {
+            return null;
+        }
+
+        ForkScanner scanner = new ForkScanner();
+        if (!scanner.setup(execution.getCurrentHeads(), parents)) {
+            return null;
+        }
+        CachedStageScan.SealingChunkVisitor visitor = new CachedStageScan.SealingChunkVisitor(run);
+        scanner.visitSimpleChunks(visitor, new StageChunkFinder());
+
+        // Visitor pushes a start and a flag for every stage, so these line up
+        Iterator<FlowNode> starts = visitor.stageStarts.iterator();
+        Iterator<Boolean> topLevel = visitor.stageTopLevel.iterator();
+        for (StageNodeExt stage : visitor.getStages()) {
+            FlowNode start = starts.next();
+            boolean isTopLevel = topLevel.next();
+            if (start.getId().equals(stageStart.getId())) {
+                return isTopLevel ? stage : null;
+            }
+        }
+        return null;
+    }
+}
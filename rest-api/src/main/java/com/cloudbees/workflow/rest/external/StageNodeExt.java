@@ -33,10 +33,11 @@ import org.jenkinsci.plugins.workflow.actions.ThreadNameAction;
 import org.jenkinsci.plugins.workflow.actions.TimingAction;
 import org.jenkinsci.plugins.workflow.graph.AtomNode;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.kohsuke.accmod.Restricted;
+import org.kohsuke.accmod.restrictions.NoExternalUse;
 import org.kohsuke.stapler.Stapler;
 
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.List;
 
 /**
@@ -47,7 +48,7 @@ public class StageNodeExt extends FlowNodeExt {
     private List<AtomFlowNodeExt> stageFlowNodes;
 
     /** Bit of a hack but this lets us cache all the child nodes, not just the limited subset without adding to JSON responses */
-    transient List<String> allChildNodeIds = new ArrayList<String>();
+    transient ChildNodeIds allChildNodeIds = ChildNodeIds.EMPTY;
 
     // Limit the size of child nodes returned
     static final int MAX_CHILD_NODES = Integer.getInteger(StageNodeExt.class.getName()+".maxChildNodes", 100);
@@ -68,7 +69,14 @@ public class StageNodeExt extends FlowNodeExt {
     /** Return full list of child node IDs */
     @JsonIgnore // Just in case
     public List<String> getAllChildNodeIds() {
-        return Collections.unmodifiableList(allChildNodeIds);
+        return allChildNodeIds;
+    }
+
+    /** Restore the full list of child node IDs, used when reloading a persisted run */
+    @JsonIgnore
+    @Restricted(NoExternalUse.class)
+    public void setAllChildNodeIds(List<String> allChildNodeIds) {
+        this.allChildNodeIds = ChildNodeIds.of(allChildNodeIds);
     }
 
     /** Hides child nodes, so we store a complete image but only return the minimal amount of data */
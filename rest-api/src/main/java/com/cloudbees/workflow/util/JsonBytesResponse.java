@@ -0,0 +1,26 @@
+package com.cloudbees.workflow.util;
+
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerRequest;
+import org.kohsuke.stapler.StaplerResponse;
+
+import javax.servlet.ServletException;
+import java.io.IOException;
+
+/**
+ * Already serialized JSON, written out as is.
+ */
+public class JsonBytesResponse implements HttpResponse {
+    public final byte[] json;
+
+    public JsonBytesResponse(byte[] json) {
+        this.json = json;
+    }
+
+    @Override
+    public void generateResponse(StaplerRequest req, StaplerResponse rsp, Object node) throws IOException, ServletException {
+        rsp.setContentType("application/json; charset=UTF-8");
+        rsp.setContentLength(json.length);
+        rsp.getOutputStream().write(json);
+    }
+}
@@ -24,6 +24,7 @@
 package com.cloudbees.workflow.util;
 
 import hudson.model.Item;
+import jenkins.model.Jenkins;
 import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.kohsuke.stapler.Stapler;
 import org.kohsuke.stapler.StaplerRequest;
@@ -56,6 +57,11 @@ public class ModelUtil {
 
     public static String getRootUrl() {
         StaplerRequest currentRequest = Stapler.getCurrentRequest();
-        return (currentRequest != null) ? currentRequest.getContextPath() : "/";
+        if (currentRequest != null) {
+            return currentRequest.getContextPath();
+        }
+        // Background computation, same context path as any request would have
+        Jenkins jenkins = Jenkins.getInstanceOrNull();
+        return (jenkins != null && jenkins.servletContext != null) ? jenkins.servletContext.getContextPath() : "/";
     }
 }
@@ -1,10 +1,14 @@
 package com.cloudbees.workflow.util;
 
+import hudson.Util;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.HttpResponses;
 import org.kohsuke.stapler.StaplerRequest;
 import org.kohsuke.stapler.StaplerResponse;
 import org.kohsuke.stapler.interceptor.Interceptor;
 import org.kohsuke.stapler.interceptor.InterceptorAnnotation;
 
+import javax.servlet.http.HttpServletResponse;
 import java.lang.annotation.Retention;
 import java.lang.annotation.Target;
 import java.lang.reflect.InvocationTargetException;
@@ -27,12 +31,43 @@ public @interface ServeJson {
         public Object invoke(StaplerRequest request, StaplerResponse response, Object instance, Object[] arguments)
                 throws IllegalAccessException, InvocationTargetException {
             try {
+                if (instance instanceof ETagged) {
+                    String state = ((ETagged) instance).getETagState(request, target.getName());
+                    if (state != null) {
+                        String eTag = '"' + Util.getDigestOf(target.getName() + ':' + state) + '"';
+                        response.setHeader("ETag", eTag);
+                        if (matchesETag(request.getHeader("If-None-Match"), eTag)) {
+                            // Client already has this exact response, don't even compute it
+                            return HttpResponses.status(HttpServletResponse.SC_NOT_MODIFIED);
+                        }
+                    }
+                }
                 Object o = target.invoke(request, response, instance, arguments);
+                if (o instanceof HttpResponse) {
+                    // Already serialized
+                    return o;
+                }
                 return new JsonResponse(JSONReadWrite.jsonMapper,o);
             } catch (Exception e) {
                 // TODO: Can be removed and ServletException added to throws declarations from 1.651+
                 throw new RuntimeException("Unexpected exception while serving JSON", e);
             }
         }
+
+        static boolean matchesETag(String ifNoneMatch, String eTag) {
+            if (ifNoneMatch == null) {
+                return false;
+            }
+            for (String candidate : ifNoneMatch.split(",")) {
+                candidate = candidate.trim();
+                if (candidate.startsWith("W/")) {
+                    candidate = candidate.substring(2);
+                }
+                if (candidate.equals("*") || candidate.equals(eTag)) {
+                    return true;
+                }
+            }
+            return false;
+        }
     }
 }
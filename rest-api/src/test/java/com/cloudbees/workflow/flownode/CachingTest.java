@@ -23,15 +23,33 @@
  */
 package com.cloudbees.workflow.flownode;
 
+import com.cloudbees.workflow.Util;
+import com.cloudbees.workflow.rest.endpoints.flownode.Describe;
+import com.cloudbees.workflow.rest.external.CachedStageScan;
+import com.cloudbees.workflow.rest.external.FlowNodeExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.StageNodeExt;
+import com.cloudbees.workflow.rest.external.StatusExt;
 import com.google.common.cache.Cache;
+import hudson.EnvVars;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.junit.Assert;
 import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.jvnet.hudson.test.MockFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
 
 /**
  * Tests the improved run cache invalidation routines
@@ -41,6 +59,9 @@ public class CachingTest {
     @Rule
     public JenkinsRule jenkinsRule = new JenkinsRule();
 
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
     @Test
     public void deletionTest() throws Exception {
         Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
@@ -107,4 +128,494 @@ public class CachingTest {
         Assert.assertEquals("Non-renamed jobs should still be cached", r2, cache.getIfPresent(runKey2));
         Assert.assertNull("Cache entry should not be present with new job name", cache.getIfPresent(newJobKey));
     }
+
+    @Test
+    public void snapshotTest() throws Exception {
+        Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "PersistedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done' \n" +
+                "stage 'second' \n" +
+                "echo 'done again'"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt r = RunExt.create(build);
+        Assert.assertTrue("Snapshot should be written for completed run", RunExtSnapshotStore.getSnapshotFile(build).isFile());
+
+        // Simulate a restart: memory cache is empty, but the snapshot is still on disk
+        cache.invalidateAll();
+        RunExt reloaded = RunExt.create(build);
+        Assert.assertNotSame(r, reloaded);
+        Assert.assertEquals(reloaded, cache.getIfPresent(build.getExternalizableId()));
+        Assert.assertEquals(r.getStatus(), reloaded.getStatus());
+        Assert.assertEquals(r.getStages().size(), reloaded.getStages().size());
+        for (int i = 0; i < r.getStages().size(); i++) {
+            Assert.assertEquals(r.getStages().get(i).getId(), reloaded.getStages().get(i).getId());
+            Assert.assertEquals(r.getStages().get(i).getName(), reloaded.getStages().get(i).getName());
+            Assert.assertEquals(r.getStages().get(i).getAllChildNodeIds(), reloaded.getStages().get(i).getAllChildNodeIds());
+        }
+
+        // Links inside the snapshot are only valid for the original job name
+        cache.invalidateAll();
+        job.renameTo("RenamedPersistedJob");
+        Assert.assertNull(RunExtSnapshotStore.load(build));
+        Assert.assertFalse(RunExtSnapshotStore.getSnapshotFile(build).exists());
+    }
+
+    @Test
+    public void weightTest() throws Exception {
+        FlowNodeUtil.CacheExtension ext = FlowNodeUtil.CacheExtension.all().get(0);
+        ext.getRunCache().invalidateAll();
+        Assert.assertEquals(0, ext.getWeight());
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "WeighedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "for (int i=0; i<20; i++) { echo \"step $i\" }"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt r = RunExt.create(build);
+        long weight = RunExtWeigher.estimateSize(r);
+        Assert.assertTrue("Run with stages should have a real weight", weight > RunExtWeigher.RUN_SIZE);
+        // Same as the cache evicts against, key included
+        Assert.assertEquals(new RunExtWeigher().weigh(build.getExternalizableId(), r), ext.getWeight());
+        Assert.assertTrue(ext.getWeight() > weight);
+        Assert.assertTrue(ext.getWeight() < ext.getMaxWeight());
+    }
+
+    @Test
+    public void cachedScanRunningTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "CachedScanJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done' \n" +
+                "stage 'second' \n" +
+                "echo 'done again' \n" +
+                "stage 'third' \n" +
+                "input 'Proceed?'"
+        ));
+        job.scheduleBuild2(0);
+        Util.waitForBuildCount(job, 1);
+        WorkflowRun build = job.getFirstBuild();
+        Util.waitForBuildPendingInput(build);
+        FlowExecution execution = build.getExecution();
+
+        RunExt running = RunExt.create(build);
+        Assert.assertNotNull("Running builds should use the cached scan", CachedStageScan.getIfPresent(execution));
+        RunExt again = RunExt.create(build);
+
+        // Must match a from-scratch computation
+        List<StageNodeExt> expected = RunExt.createNew(build).getStages();
+        for (RunExt r : new RunExt[]{running, again}) {
+            Assert.assertEquals(expected.size(), r.getStages().size());
+            for (int i = 0; i < expected.size(); i++) {
+                Assert.assertEquals(expected.get(i).getId(), r.getStages().get(i).getId());
+                Assert.assertEquals(expected.get(i).getName(), r.getStages().get(i).getName());
+                Assert.assertEquals(expected.get(i).getStatus(), r.getStages().get(i).getStatus());
+                Assert.assertEquals(expected.get(i).getAllChildNodeIds(), r.getStages().get(i).getAllChildNodeIds());
+            }
+        }
+        // Finished stages are kept, not recomputed
+        Assert.assertSame(running.getStages().get(0), again.getStages().get(0));
+        build.doStop();
+    }
+
+    @Test
+    public void cachedScanUnchangedGraphTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "IdleJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done' \n" +
+                "stage 'second' \n" +
+                "input 'Proceed?'"
+        ));
+        job.scheduleBuild2(0);
+        Util.waitForBuildCount(job, 1);
+        WorkflowRun build = job.getFirstBuild();
+        Util.waitForBuildPendingInput(build);
+
+        StageNodeExt before = RunExt.create(build).getStages().get(1);
+        Thread.sleep(200);
+        StageNodeExt after = RunExt.create(build).getStages().get(1);
+
+        // Not rescanned, just timed
+        Assert.assertSame(before.getAllChildNodeIds(), after.getAllChildNodeIds());
+        Assert.assertEquals(StatusExt.PAUSED_PENDING_INPUT, after.getStatus());
+        Assert.assertTrue(after.getDurationMillis() >= before.getDurationMillis() + 200);
+        Assert.assertTrue(after.getPauseDurationMillis() >= before.getPauseDurationMillis() + 200);
+
+        // Close to what a full scan computes right after
+        StageNodeExt expected = RunExt.createNew(build).getStages().get(1);
+        Assert.assertEquals(expected.getStatus(), after.getStatus());
+        Assert.assertEquals(expected.getStartTimeMillis(), after.getStartTimeMillis());
+        Assert.assertTrue(Math.abs(expected.getDurationMillis() - after.getDurationMillis()) < 1000);
+        Assert.assertTrue(Math.abs(expected.getPauseDurationMillis() - after.getPauseDurationMillis()) < 1000);
+        build.doStop();
+    }
+
+    @Test
+    public void cachedScanNestedStagesTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "NestedStagesJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage('before') { echo 'done' } \n" +
+                "stage('outer') { \n" +
+                "  echo 'outer' \n" +
+                "  stage('inner') { echo 'inner' } \n" +
+                "  input 'Proceed?' \n" +
+                "}"
+        ));
+        job.scheduleBuild2(0);
+        Util.waitForBuildCount(job, 1);
+        WorkflowRun build = job.getFirstBuild();
+        Util.waitForBuildPendingInput(build);
+
+        // The inner stage started on the main flow, but the outer one around it is still running
+        List<StageNodeExt> stages = RunExt.create(build).getStages();
+        assertSealed(build, stages, "before");
+        assertNotSealed(build, stages, "outer", "inner");
+        assertSameAsFullScan(build, stages);
+        build.doStop();
+    }
+
+    @Test
+    public void cachedScanParallelStagesTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "ParallelStagesJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage('before') { echo 'done' } \n" +
+                "stage('setup') { echo 'setup' } \n" +
+                "parallel( \n" +
+                "  a: { stage('a') { input 'Proceed?' } }, \n" +
+                "  b: { stage('b1') { echo 'b1' } \n" +
+                "       stage('b2') { echo 'b2' } } \n" +
+                ")"
+        ));
+        job.scheduleBuild2(0);
+        Util.waitForBuildCount(job, 1);
+        WorkflowRun build = job.getFirstBuild();
+        Util.waitForBuildPendingInput(build);
+
+        // Branch b is done, but its stages sit next to the running branch a
+        List<StageNodeExt> stages = RunExt.create(build).getStages();
+        assertSealed(build, stages, "before");
+        assertNotSealed(build, stages, "setup", "a", "b1", "b2");
+        assertSameAsFullScan(build, stages);
+        build.doStop();
+    }
+
+    private static void assertSealed(WorkflowRun build, List<StageNodeExt> stages, String... names) {
+        CachedStageScan scan = CachedStageScan.getIfPresent(build.getExecution());
+        Assert.assertNotNull(scan);
+        for (String name : names) {
+            Assert.assertNotNull("Stage should be sealed: " + name, scan.getSealedStage(stageNamed(stages, name).getId()));
+        }
+    }
+
+    private static void assertNotSealed(WorkflowRun build, List<StageNodeExt> stages, String... names) {
+        CachedStageScan scan = CachedStageScan.getIfPresent(build.getExecution());
+        Assert.assertNotNull(scan);
+        for (String name : names) {
+            Assert.assertNull("Stage should still be scanned: " + name, scan.getSealedStage(stageNamed(stages, name).getId()));
+        }
+    }
+
+    private static StageNodeExt stageNamed(List<StageNodeExt> stages, String name) {
+        for (StageNodeExt stage : stages) {
+            if (stage.getName().equals(name)) {
+                return stage;
+            }
+        }
+        throw new AssertionError("No stage " + name + " in " + stages);
+    }
+
+    private static void assertSameAsFullScan(WorkflowRun build, List<StageNodeExt> stages) {
+        List<StageNodeExt> expected = RunExt.createNew(build).getStages();
+        Assert.assertEquals(expected.size(), stages.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getId(), stages.get(i).getId());
+            Assert.assertEquals(expected.get(i).getName(), stages.get(i).getName());
+            Assert.assertEquals(expected.get(i).getStatus(), stages.get(i).getStatus());
+            Assert.assertEquals(expected.get(i).getAllChildNodeIds(), stages.get(i).getAllChildNodeIds());
+        }
+    }
+
+    @Test
+    public void precomputeTest() throws Exception {
+        Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "PrecomputedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done'"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        // Cached without anybody asking for it
+        String runKey = build.getExternalizableId();
+        for (int i = 0; i < 100 && cache.getIfPresent(runKey) == null; i++) {
+            Thread.sleep(100);
+        }
+        RunExt precomputed = cache.getIfPresent(runKey);
+        Assert.assertNotNull("Completed run should be precomputed", precomputed);
+        Assert.assertTrue(RunExtSnapshotStore.getSnapshotFile(build).isFile());
+        Assert.assertSame(precomputed, RunExt.create(build));
+        Assert.assertEquals(1, precomputed.getStages().size());
+    }
+
+    @Test
+    public void statsTest() throws Exception {
+        RunCacheStats stats = new RunCacheStats();
+        long computedBefore = RunCacheStats.COMPUTE_TIMES.getCount();
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "MeasuredJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done'"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        // Let the precomputer finish its own lookup first, so the counts below are exact
+        for (int i = 0; i < 100 && FlowNodeUtil.peekCachedRun(build) == null; i++) {
+            Thread.sleep(100);
+        }
+        Assert.assertNotNull(FlowNodeUtil.peekCachedRun(build));
+        Assert.assertTrue("Computation should be timed", RunCacheStats.COMPUTE_TIMES.getCount() > computedBefore);
+
+        long hits = stats.getHitCount();
+        long misses = stats.getMissCount();
+        RunExt.create(build);
+        Assert.assertEquals(hits + 1, stats.getHitCount());
+
+        // Checks that do not serve the run are not counted
+        Assert.assertNotNull(FlowNodeUtil.peekCachedRun(build));
+        Assert.assertEquals(hits + 1, stats.getHitCount());
+        Assert.assertEquals(misses, stats.getMissCount());
+
+        // A miss is counted once, not again inside the computation
+        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidate(build.getExternalizableId());
+        RunExt.create(build);
+        Assert.assertEquals(misses + 1, stats.getMissCount());
+
+        long total = 0;
+        for (long count : stats.getComputeTimeBucketCounts()) {
+            total += count;
+        }
+        Assert.assertEquals(RunCacheStats.COMPUTE_TIMES.getCount(), total);
+        Assert.assertEquals(stats.getComputeTimeBuckets().length, stats.getComputeTimeHistogram().size());
+    }
+
+    @Test
+    public void stringPoolTest() throws Exception {
+        Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "RepeatedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done'"
+        ));
+        WorkflowRun build1 = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        WorkflowRun build2 = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        // Once the precomputer is done with them, objects built for a single request are left alone
+        for (int i = 0; i < 100 && (FlowNodeUtil.peekCachedRun(build1) == null || FlowNodeUtil.peekCachedRun(build2) == null); i++) {
+            Thread.sleep(100);
+        }
+        long lookups = StringPool.getLookupCount();
+        RunExt.createNew(build1);
+        RunExt.createNew(build2);
+        Assert.assertEquals(lookups, StringPool.getLookupCount());
+
+        // Cached runs share the same strings for their stages and steps
+        long duplicates = StringPool.getDuplicateCount();
+        FlowNodeUtil.cacheRun(build1, RunExt.createNew(build1));
+        FlowNodeUtil.cacheRun(build2, RunExt.createNew(build2));
+        StageNodeExt stage1 = FlowNodeUtil.peekCachedRun(build1).getStages().get(0);
+        StageNodeExt stage2 = FlowNodeUtil.peekCachedRun(build2).getStages().get(0);
+        Assert.assertSame(stage1.getName(), stage2.getName());
+        Assert.assertSame(stage1.getId(), stage2.getId());
+        Assert.assertSame(stage1.getStageFlowNodes().get(0).getName(), stage2.getStageFlowNodes().get(0).getName());
+        Assert.assertTrue(StringPool.getDuplicateCount() > duplicates);
+
+        // Savings are those of the runs cached right now
+        RunCacheStats stats = new RunCacheStats();
+        Assert.assertTrue(stats.getStringPoolSavedBytes() > 0);
+        cache.invalidateAll();
+        Assert.assertEquals(0, stats.getStringPoolSavedBytes());
+    }
+
+    @Test
+    public void environmentCacheTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "EnvJob");
+        job.setDefinition(new CpsFlowDefinition("echo 'done'"));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        EnvVars first = RunEnvironmentCache.get(build);
+        Assert.assertEquals("1", first.get("BUILD_NUMBER"));
+
+        // Callers get their own copy of the memoized environment
+        first.put("BUILD_NUMBER", "changed");
+        Assert.assertEquals("1", RunEnvironmentCache.get(build).get("BUILD_NUMBER"));
+    }
+
+    @Test
+    public void commitIndexTest() throws Exception {
+        File changelog = tmp.newFile("changelog1.xml");
+        Files.write(changelog.toPath(), Arrays.asList(
+                "commit 1111111111111111111111111111111111111111",
+                "author Someone <someone@example.com> 1500000000 +0000",
+                "",
+                "    first",
+                "commit 2222222222222222222222222222222222222222",
+                "    second"), StandardCharsets.UTF_8);
+
+        List<String> expected = Arrays.asList("1111111111111111111111111111111111111111", "2222222222222222222222222222222222222222");
+        Assert.assertEquals(expected, CommitIndex.commitIds(changelog));
+        File index = new File(changelog.getPath() + CommitIndex.SUFFIX);
+        Assert.assertTrue(index.isFile());
+        Assert.assertEquals(expected, Files.readAllLines(index.toPath(), StandardCharsets.UTF_8));
+
+        // Served from the index file, without reading the changelog again
+        Files.write(index.toPath(), Arrays.asList("3333333333333333333333333333333333333333"), StandardCharsets.UTF_8);
+        Assert.assertTrue(index.setLastModified(changelog.lastModified() + 1000));
+        Assert.assertEquals(Arrays.asList("3333333333333333333333333333333333333333"), CommitIndex.commitIds(changelog));
+
+        // Rescanned once the changelog is newer than its index
+        Assert.assertTrue(changelog.setLastModified(index.lastModified() + 1000));
+        Assert.assertEquals(expected, CommitIndex.commitIds(changelog));
+    }
+
+    @Test
+    public void folderMoveTest() throws Exception {
+        Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+
+        MockFolder folder = jenkinsRule.createFolder("Team");
+        WorkflowJob job = folder.createProject(WorkflowJob.class, "FolderedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done'"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        RunExt r = RunExt.create(build);
+        String runKey = build.getExternalizableId();
+        Assert.assertEquals(r, cache.getIfPresent(runKey));
+
+        // Control: same name prefix, but not in the folder
+        WorkflowJob job2 = jenkinsRule.jenkins.createProject(WorkflowJob.class, "TeamJob");
+        job2.setDefinition(new CpsFlowDefinition("" +
+                "stage 'second' \n" +
+                "echo 'done'"
+        ));
+        WorkflowRun build2 = jenkinsRule.assertBuildStatusSuccess(job2.scheduleBuild2(0));
+        RunExt r2 = RunExt.create(build2);
+        String runKey2 = build2.getExternalizableId();
+
+        folder.renameTo("OtherTeam");
+        Assert.assertNull("Cache entry should be removed for jobs in a moved folder", cache.getIfPresent(runKey));
+        Assert.assertEquals("Jobs outside the folder should still be cached", r2, cache.getIfPresent(runKey2));
+    }
+
+    @Test
+    public void snapshotDescribeTest() throws Exception {
+        Cache<String, RunExt> cache = FlowNodeUtil.CacheExtension.all().get(0).getRunCache();
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "PersistedStageJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done' \n" +
+                "stage 'second' \n" +
+                "echo 'done again'"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        StageNodeExt second = RunExt.create(build).getStages().get(1);
+        Assert.assertTrue(RunExtSnapshotStore.getSnapshotFile(build).isFile());
+
+        // After a restart, describing a stage reads the snapshot rather than scanning, and caches the run
+        cache.invalidateAll();
+        FlowNodeExt described = Describe.get(build.getExecution().getNode(second.getId()));
+        Assert.assertEquals(second.getId(), described.getId());
+        Assert.assertEquals(second.getName(), described.getName());
+        Assert.assertNotNull(cache.getIfPresent(build.getExternalizableId()));
+    }
+
+    @Test
+    public void jsonCacheTest() throws Exception {
+        FlowNodeUtil.CacheExtension ext = FlowNodeUtil.CacheExtension.all().get(0);
+        RunJsonCache jsonCache = ext.getRunJsonCache();
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "SerializedJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done'"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        byte[] summary = jsonCache.getJson(build, RunJsonCache.Variant.CHILD_HIDING);
+        byte[] full = jsonCache.getJson(build, RunJsonCache.Variant.FULL);
+        Assert.assertSame("Completed run JSON should be cached", summary, jsonCache.getJson(build, RunJsonCache.Variant.CHILD_HIDING));
+        Assert.assertFalse(Arrays.equals(summary, full));
+
+        // Dropped with the run
+        ext.getRunCache().invalidate(build.getExternalizableId());
+        Assert.assertNotSame(summary, jsonCache.getJson(build, RunJsonCache.Variant.CHILD_HIDING));
+    }
+
+    @Test
+    public void jsonCacheRenameTest() throws Exception {
+        RunJsonCache jsonCache = FlowNodeUtil.CacheExtension.all().get(0).getRunJsonCache();
+
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "SerializedRenamedJob");
+        job.setDefinition(new CpsFlowDefinition("echo 'done'"));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        byte[] before = jsonCache.getJson(build, RunJsonCache.Variant.CHILD_HIDING);
+        String oldKey = build.getExternalizableId();
+
+        // A new job under the old name has the old key, but none of the old JSON
+        job.renameTo("SerializedMovedJob");
+        WorkflowJob replacement = jenkinsRule.jenkins.createProject(WorkflowJob.class, "SerializedRenamedJob");
+        replacement.setDefinition(new CpsFlowDefinition("echo 'done again'"));
+        WorkflowRun replacementBuild = jenkinsRule.assertBuildStatusSuccess(replacement.scheduleBuild2(0));
+        Assert.assertEquals(oldKey, replacementBuild.getExternalizableId());
+        byte[] after = jsonCache.getJson(replacementBuild, RunJsonCache.Variant.CHILD_HIDING);
+        Assert.assertNotSame(before, after);
+        String json = new String(after, "UTF-8");
+        Assert.assertTrue(json, json.contains("\"startTimeMillis\":" + replacementBuild.getStartTimeInMillis()));
+
+        // The renamed run gets JSON under its new name
+        String moved = new String(jsonCache.getJson(build, RunJsonCache.Variant.CHILD_HIDING), "UTF-8");
+        Assert.assertTrue(moved, moved.contains("/job/SerializedMovedJob/"));
+        Assert.assertFalse(moved, moved.contains("/job/SerializedRenamedJob/"));
+    }
+
+    @Test
+    public void successorIndexTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "ParallelJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "parallel a: { echo 'a1'; echo 'a2' }, b: { echo 'b1' }, c: { echo 'c1'; echo 'c2'; echo 'c3' } \n" +
+                "echo 'done'"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        FlowExecution execution = build.getExecution();
+        List<FlowNode> nodes = new DepthFirstScanner().allNodes(execution);
+
+        // Same answer as checking every node's parents: the earliest child, or none
+        SuccessorIndex index = SuccessorIndex.of(execution);
+        for (FlowNode node : nodes) {
+            int expected = SuccessorIndex.NONE;
+            for (FlowNode candidate : nodes) {
+                int candidateId = Integer.parseInt(candidate.getId());
+                if (candidate.getParents().contains(node) && (expected == SuccessorIndex.NONE || candidateId < expected)) {
+                    expected = candidateId;
+                }
+            }
+            Assert.assertEquals("Successor of node " + node.getId(), expected, index.getFirstSuccessor(execution, Integer.parseInt(node.getId())));
+
+            FlowNode after = FlowNodeUtil.getNodeAfter(node);
+            if (expected == SuccessorIndex.NONE) {
+                Assert.assertNull(after);
+            } else {
+                Assert.assertNotNull("Node after " + node.getId(), after);
+                Assert.assertTrue(after.getParents().contains(node));
+            }
+        }
+    }
 }
@@ -0,0 +1,98 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.flownode;
+
+import com.cloudbees.workflow.rest.external.RunExt;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Tests that concurrent computations of the same run are shared
+ */
+public class RunExtSingleFlightTest {
+
+    @Test
+    public void coalescingTest() throws Exception {
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        final RunExt computed = new RunExt();
+        long coalescedBefore = RunExtSingleFlight.getCoalescedCount();
+
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            Future<RunExt> first = executor.submit(new Callable<RunExt>() {
+                @Override
+                public RunExt call() {
+                    return RunExtSingleFlight.compute("job#1", new Callable<RunExt>() {
+                        @Override
+                        public RunExt call() throws Exception {
+                            started.countDown();
+                            release.await();
+                            return computed;
+                        }
+                    });
+                }
+            });
+            Assert.assertTrue(started.await(10, TimeUnit.SECONDS));
+
+            Future<RunExt> second = executor.submit(new Callable<RunExt>() {
+                @Override
+                public RunExt call() {
+                    return RunExtSingleFlight.compute("job#1", new Callable<RunExt>() {
+                        @Override
+                        public RunExt call() {
+                            throw new AssertionError("Should have waited for the running computation");
+                        }
+                    });
+                }
+            });
+            while (RunExtSingleFlight.getCoalescedCount() == coalescedBefore) {
+                Thread.sleep(10);
+            }
+            release.countDown();
+
+            Assert.assertSame(computed, first.get(10, TimeUnit.SECONDS));
+            Assert.assertSame(computed, second.get(10, TimeUnit.SECONDS));
+            Assert.assertEquals(0, RunExtSingleFlight.getInFlightCount());
+        } finally {
+            executor.shutdownNow();
+        }
+
+        // Nothing is retained once done
+        final RunExt recomputed = new RunExt();
+        Assert.assertSame(recomputed, RunExtSingleFlight.compute("job#1", new Callable<RunExt>() {
+            @Override
+            public RunExt call() {
+                return recomputed;
+            }
+        }));
+    }
+}
@@ -24,19 +24,26 @@
 package com.cloudbees.workflow.rest.endpoints;
 
 import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.flownode.RunExtSingleFlight;
 import com.cloudbees.workflow.rest.external.AtomFlowNodeExt;
 import com.cloudbees.workflow.rest.external.BuildArtifactExt;
 import com.cloudbees.workflow.rest.external.ChangeSetExt;
+import com.cloudbees.workflow.rest.external.DeploymentMetadataAction;
 import com.cloudbees.workflow.rest.external.ErrorExt;
 import com.cloudbees.workflow.rest.external.JobExt;
 import com.cloudbees.workflow.rest.external.RunExt;
+import com.cloudbees.workflow.rest.external.RunsPageExt;
 import com.cloudbees.workflow.rest.external.StageNodeExt;
 import com.cloudbees.workflow.rest.external.StatusExt;
 import com.cloudbees.workflow.util.JSONReadWrite;
 import com.gargoylesoftware.htmlunit.Page;
+import com.gargoylesoftware.htmlunit.WebRequest;
+import com.gargoylesoftware.htmlunit.WebResponse;
 import hudson.model.Action;
+import hudson.model.ParametersDefinitionProperty;
 import hudson.model.Result;
 import hudson.model.Run;
+import hudson.model.StringParameterDefinition;
 import hudson.model.queue.QueueTaskFuture;
 import org.jenkinsci.plugins.workflow.actions.TimingAction;
 import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
@@ -44,15 +51,26 @@ import org.jenkinsci.plugins.workflow.graph.FlowNode;
 import org.jenkinsci.plugins.workflow.job.WorkflowJob;
 import org.jenkinsci.plugins.workflow.job.WorkflowRun;
 import org.junit.Assert;
+import org.junit.Assume;
 import org.junit.Rule;
 import org.junit.Test;
 import org.jvnet.hudson.test.Issue;
 import org.jvnet.hudson.test.JenkinsRule;
+import org.kohsuke.stapler.HttpResponse;
+import org.kohsuke.stapler.StaplerResponse;
+import org.mockito.Mockito;
 import org.xml.sax.SAXException;
 
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.net.URL;
 import java.net.URLEncoder;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
 
 /**
  * Test the raw job/run APIs
@@ -663,4 +681,307 @@ public class JobAndRunAPITest {
         Assert.assertEquals(1, run.getStages().size());
         Assert.assertEquals(StatusExt.FAILED, run.getStages().get(0).getStatus());
     }
+
+    @Test
+    public void testConditionalGet() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Cached job");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'Build'\n" +
+                "echo 'Building'"
+        ));
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+        webClient.getOptions().setThrowExceptionOnFailingStatusCode(false);
+
+        String runsUrl = job.getUrl() + "wfapi/runs";
+        String[] urls = {job.getUrl() + "1/wfapi/describe", runsUrl};
+        for (String url : urls) {
+            WebResponse first = webClient.goTo(url, "application/json").getWebResponse();
+            String eTag = first.getResponseHeaderValue("ETag");
+            Assert.assertNotNull("Completed runs should have an ETag: " + url, eTag);
+
+            WebRequest request = new WebRequest(new URL(jenkinsRule.getURL(), url));
+            request.setAdditionalHeader("If-None-Match", eTag);
+            WebResponse second = webClient.loadWebResponse(request);
+            Assert.assertEquals(304, second.getStatusCode());
+            Assert.assertEquals(eTag, second.getResponseHeaderValue("ETag"));
+
+            request.setAdditionalHeader("If-None-Match", "\"stale\"");
+            Assert.assertEquals(200, webClient.loadWebResponse(request).getStatusCode());
+        }
+
+        // A new build changes the run list
+        String before = webClient.goTo(runsUrl, "application/json").getWebResponse().getResponseHeaderValue("ETag");
+        jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        String after = webClient.goTo(runsUrl, "application/json").getWebResponse().getResponseHeaderValue("ETag");
+        Assert.assertNotEquals(before, after);
+    }
+
+    @Test
+    public void testConditionalGetRecreatedJob() throws Exception {
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+        String[] before = recreatedJobETags(webClient);
+        jenkinsRule.jenkins.getItemByFullName("Recreated job", WorkflowJob.class).delete();
+        String[] after = recreatedJobETags(webClient);
+
+        // Same job name, build number and node ids, but not the same run
+        for (int i = 0; i < before.length; i++) {
+            Assert.assertNotNull(before[i]);
+            Assert.assertNotEquals(before[i], after[i]);
+        }
+    }
+
+    private String[] recreatedJobETags(JenkinsRule.WebClient webClient) throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Recreated job");
+        job.setDefinition(new CpsFlowDefinition("echo 'again'"));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        String nodeId = build.getExecution().getCurrentHeads().get(0).getId();
+        return new String[]{
+                webClient.goTo(job.getUrl() + "1/wfapi/describe", "application/json").getWebResponse().getResponseHeaderValue("ETag"),
+                webClient.goTo(job.getUrl() + "1/execution/node/" + nodeId + "/wfapi/describe", "application/json").getWebResponse().getResponseHeaderValue("ETag")
+        };
+    }
+
+    @Test
+    public void testDeploymentMetadata() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Deployed job");
+        job.addProperty(new ParametersDefinitionProperty(new StringParameterDefinition("ENVIRONMENT", "staging", "")));
+        job.setDefinition(new CpsFlowDefinition("echo 'deploying'"));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        List<RunExt> runs = JobExt.create(job.getBuilds(), null, false);
+        Assert.assertEquals("staging", runs.get(0).getEnvironment());
+
+        // Recorded on the run once finalized, and persisted with it
+        for (int i = 0; i < 100 && build.getAction(DeploymentMetadataAction.class) == null; i++) {
+            Thread.sleep(100);
+        }
+        DeploymentMetadataAction metadata = build.getAction(DeploymentMetadataAction.class);
+        Assert.assertNotNull(metadata);
+        Assert.assertEquals("staging", metadata.getEnvironment());
+        build.reload();
+        Assert.assertEquals("staging", build.getAction(DeploymentMetadataAction.class).getEnvironment());
+
+        // Without any change set, there is nothing to look for on the next listing
+        Assert.assertNull(metadata.getLastCommitId());
+        Assert.assertNull(metadata.getChangeSetRun());
+        Assert.assertTrue(metadata.isChangeSetRecorded());
+        RunExt listed = JobExt.create(job.getBuilds(), null, false).get(0);
+        Assert.assertNull(listed.getChangeSet());
+        Assert.assertTrue(listed.getChangeSets().isEmpty());
+
+        // Recorded before the run of the change set was, looked for on listing but not written back
+        DeploymentMetadataAction legacy = new DeploymentMetadataAction("staging", null, null, null, null, "0123abcd", null);
+        build.addOrReplaceAction(legacy);
+        listed = JobExt.create(job.getBuilds(), null, false).get(0);
+        Assert.assertEquals("staging", listed.getEnvironment());
+        Assert.assertSame(legacy, build.getAction(DeploymentMetadataAction.class));
+        Assert.assertFalse(legacy.isChangeSetRecorded());
+    }
+
+    @Test
+    public void testRunsPagination() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Paged job");
+        job.setDefinition(new CpsFlowDefinition("echo 'paged'"));
+        for (int i = 0; i < 5; i++) {
+            jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        }
+        JenkinsRule.WebClient webClient = jenkinsRule.createWebClient();
+
+        RunsPageExt newest = getRunsPage(webClient, job.getUrl() + "wfapi/runs?limit=2");
+        Assert.assertEquals(2, newest.getRuns().size());
+        Assert.assertEquals("#5", newest.getRuns().get(0).getName());
+        Assert.assertEquals("#4", newest.getRuns().get(1).getName());
+        Assert.assertNull(newest.get_links().getPrev());
+        Assert.assertEquals("/jenkins/" + job.getUrl() + "wfapi/runs?limit=2&before=4", newest.get_links().getNext().href);
+
+        RunsPageExt older = getRunsPage(webClient, newest.get_links().getNext().href.substring("/jenkins/".length()));
+        Assert.assertEquals("#3", older.getRuns().get(0).getName());
+        Assert.assertEquals("#2", older.getRuns().get(1).getName());
+        Assert.assertEquals("/jenkins/" + job.getUrl() + "wfapi/runs?limit=2&after=3", older.get_links().getPrev().href);
+
+        RunsPageExt oldest = getRunsPage(webClient, older.get_links().getNext().href.substring("/jenkins/".length()));
+        Assert.assertEquals(1, oldest.getRuns().size());
+        Assert.assertEquals("#1", oldest.getRuns().get(0).getName());
+        Assert.assertNull(oldest.get_links().getNext());
+
+        // Back to the newer runs
+        RunsPageExt newer = getRunsPage(webClient, older.get_links().getPrev().href.substring("/jenkins/".length()));
+        Assert.assertEquals("#5", newer.getRuns().get(0).getName());
+        Assert.assertEquals("#4", newer.getRuns().get(1).getName());
+
+        // Cursors are build numbers, and only one direction at a time
+        webClient.setThrowExceptionOnFailingStatusCode(false);
+        Assert.assertEquals(400, webClient.goTo(job.getUrl() + "wfapi/runs?before=3&after=1", null).getWebResponse().getStatusCode());
+        Assert.assertEquals(400, webClient.goTo(job.getUrl() + "wfapi/runs?limit=many", null).getWebResponse().getStatusCode());
+    }
+
+    private RunsPageExt getRunsPage(JenkinsRule.WebClient webClient, String url) throws IOException, SAXException {
+        String jsonResponse = webClient.goTo(url, "application/json").getWebResponse().getContentAsString();
+        return new JSONReadWrite().fromString(jsonResponse, RunsPageExt.class);
+    }
+
+    @Test
+    public void testStreamedRuns() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Streamed job");
+        List<WorkflowRun> runs = completedRuns(job, 3);
+
+        // Newest first, and never stored: the list could be cut short after the headers are sent
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        StaplerResponse rsp = generate(new JobAPI.StreamingRunsResponse(runs, null, false), body);
+        Mockito.verify(rsp).setHeader("Cache-Control", "no-store");
+        RunExt[] runsExt = new JSONReadWrite().fromString(body.toString("UTF-8"), RunExt[].class);
+        Assert.assertEquals(3, runsExt.length);
+        Assert.assertEquals("#3", runsExt[0].getName());
+        Assert.assertEquals("#2", runsExt[1].getName());
+        Assert.assertEquals("#1", runsExt[2].getName());
+
+        body = new ByteArrayOutputStream();
+        rsp = generate(new JobAPI.StreamingPageResponse(job, JobAPI.PageRequest.parse("3", null, null), runs, false, JobExt.TIMEOUT_MILLIS), body);
+        Mockito.verify(rsp).setHeader("Cache-Control", "no-store");
+        RunsPageExt page = new JSONReadWrite().fromString(body.toString("UTF-8"), RunsPageExt.class);
+        Assert.assertNull(page.getPartial());
+        Assert.assertEquals("#3", page.getRuns().get(0).getName());
+        Assert.assertEquals("#1", page.getRuns().get(2).getName());
+    }
+
+    @Test
+    public void testStreamedRunsFailure() throws Exception {
+        List<WorkflowRun> runs = completedRuns("Failing stream job", 2);
+        final WorkflowRun failing = runs.get(1);
+
+        // The second run fails once the request waits for it
+        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidate(failing.getExternalizableId());
+        final long coalesced = RunExtSingleFlight.getCoalescedCount();
+        Thread blocker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    RunExtSingleFlight.compute(failing.getExternalizableId(), new Callable<RunExt>() {
+                        @Override
+                        public RunExt call() throws Exception {
+                            for (int i = 0; i < 300 && RunExtSingleFlight.getCoalescedCount() == coalesced; i++) {
+                                Thread.sleep(100);
+                            }
+                            throw new IllegalStateException("broken run");
+                        }
+                    });
+                } catch (IllegalStateException expected) {
+                    // Shared with the request
+                }
+            }
+        });
+        blocker.start();
+        waitForComputation();
+
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            generate(new JobAPI.StreamingRunsResponse(runs, null, false), body);
+            Assert.fail("The failure should reach the response");
+        } catch (IllegalStateException expected) {
+            Assert.assertEquals("broken run", expected.getMessage());
+        } finally {
+            blocker.join();
+        }
+
+        // The first run was written, but the list must not look complete
+        String json = body.toString("UTF-8");
+        Assert.assertTrue(json, json.startsWith("[{"));
+        Assert.assertFalse(json, json.trim().endsWith("]"));
+        try {
+            JSONReadWrite.jsonMapper.readTree(json);
+            Assert.fail("Truncated list should not parse: " + json);
+        } catch (IOException expected) {
+            // Unterminated
+        }
+    }
+
+    @Test
+    public void testStreamedPageTimeLimit() throws Exception {
+        // Default pool size, runs are only computed side by side with several threads
+        Assume.assumeTrue(Runtime.getRuntime().availableProcessors() > 1);
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "Slow stream job");
+        List<WorkflowRun> runs = completedRuns(job, 3);
+
+        // The second run takes as long as we want
+        final WorkflowRun slow = runs.get(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidate(slow.getExternalizableId());
+        Thread blocker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RunExtSingleFlight.compute(slow.getExternalizableId(), new Callable<RunExt>() {
+                    @Override
+                    public RunExt call() throws Exception {
+                        release.await();
+                        return RunExt.createNew(slow);
+                    }
+                });
+            }
+        });
+        blocker.start();
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        try {
+            waitForComputation();
+            JobAPI.PageRequest request = JobAPI.PageRequest.parse("3", null, null);
+            generate(new JobAPI.StreamingPageResponse(job, request, runs, false, 2000), body);
+        } finally {
+            release.countDown();
+            blocker.join();
+        }
+
+        // Valid, marked partial, and continuing after the last run returned
+        RunsPageExt page = new JSONReadWrite().fromString(body.toString("UTF-8"), RunsPageExt.class);
+        Assert.assertEquals(Boolean.TRUE, page.getPartial());
+        Assert.assertEquals(1, page.getRuns().size());
+        Assert.assertEquals("#3", page.getRuns().get(0).getName());
+        Assert.assertEquals("/jenkins/" + job.getUrl() + "wfapi/runs?limit=3&before=3", page.get_links().getNext().href);
+    }
+
+    private List<WorkflowRun> completedRuns(String name, int count) throws Exception {
+        return completedRuns(jenkinsRule.jenkins.createProject(WorkflowJob.class, name), count);
+    }
+
+    /** Newest first, once precomputed so that nothing else computes them during the test */
+    private List<WorkflowRun> completedRuns(WorkflowJob job, int count) throws Exception {
+        job.setDefinition(new CpsFlowDefinition("echo 'streamed'"));
+        for (int i = 0; i < count; i++) {
+            jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        }
+        List<WorkflowRun> runs = new ArrayList<WorkflowRun>(job.getBuilds());
+        for (WorkflowRun run : runs) {
+            for (int i = 0; i < 100 && FlowNodeUtil.peekCachedRun(run) == null; i++) {
+                Thread.sleep(100);
+            }
+        }
+        return runs;
+    }
+
+    private static void waitForComputation() throws InterruptedException {
+        for (int i = 0; i < 100 && RunExtSingleFlight.getInFlightCount() == 0; i++) {
+            Thread.sleep(100);
+        }
+    }
+
+    private static StaplerResponse generate(HttpResponse response, final ByteArrayOutputStream body) throws Exception {
+        StaplerResponse rsp = Mockito.mock(StaplerResponse.class);
+        Mockito.when(rsp.getOutputStream()).thenReturn(new ServletOutputStream() {
+            @Override
+            public void write(int b) {
+                body.write(b);
+            }
+
+            @Override
+            public boolean isReady() {
+                return true;
+            }
+
+            @Override
+            public void setWriteListener(WriteListener writeListener) {
+            }
+        });
+        response.generateResponse(null, rsp, null);
+        return rsp;
+    }
 }
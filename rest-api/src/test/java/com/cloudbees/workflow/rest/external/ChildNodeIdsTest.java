@@ -0,0 +1,65 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+public class ChildNodeIdsTest {
+
+    @Test
+    public void compactTest() {
+        // Runs of consecutive ids, as in interleaved parallel branches
+        List<String> ids = Arrays.asList("5", "6", "7", "12", "9", "10", "11", "20");
+        ChildNodeIds compact = ChildNodeIds.of(ids);
+        Assert.assertTrue(compact.isCompact());
+        Assert.assertEquals(4, compact.getRunCount());
+        Assert.assertEquals(ids, compact);
+        Assert.assertEquals(ids, new ArrayList<String>(compact));
+
+        Assert.assertEquals(0, ChildNodeIds.of(new ArrayList<String>()).size());
+
+        List<String> many = new ArrayList<String>();
+        for (int i = 2; i < 10000; i++) {
+            many.add(Integer.toString(i));
+        }
+        ChildNodeIds manyIds = ChildNodeIds.of(many);
+        Assert.assertEquals(1, manyIds.getRunCount());
+        Assert.assertEquals(many, manyIds);
+    }
+
+    @Test
+    public void fallbackTest() {
+        // Would not turn back into the same strings
+        for (List<String> ids : Arrays.asList(Arrays.asList("1", "a2"), Arrays.asList("01", "2"), Arrays.asList("-1"))) {
+            ChildNodeIds stored = ChildNodeIds.of(ids);
+            Assert.assertFalse(stored.isCompact());
+            Assert.assertEquals(ids, stored);
+        }
+    }
+}
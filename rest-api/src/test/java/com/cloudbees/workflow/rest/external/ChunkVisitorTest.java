@@ -0,0 +1,211 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2013-2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.Util;
+import hudson.model.Result;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.flow.FlowExecution;
+import org.jenkinsci.plugins.workflow.graph.FlowNode;
+import org.jenkinsci.plugins.workflow.graphanalysis.DepthFirstScanner;
+import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.GenericStatus;
+import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.StatusAndTiming;
+import org.jenkinsci.plugins.workflow.pipelinegraphanalysis.TimingInfo;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Tests the stage contents collected while walking the graph
+ */
+public class ChunkVisitorTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void boundedStageContentsTest() throws Exception {
+        int steps = StageNodeExt.MAX_CHILD_NODES + 20;
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "ManyStepsJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Busy') {\n" +
+                "  for (int i=0; i<" + steps + "; i++) { echo \"step $i\" }\n" +
+                "}\n" +
+                "stage ('Quiet') {\n" +
+                "  echo 'done'\n" +
+                "}"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+
+        RunExt runExt = RunExt.createNew(build);
+        Assert.assertEquals(2, runExt.getStages().size());
+        StageNodeExt busy = runExt.getStages().get(0);
+
+        // Only the first nodes of the stage are returned, in execution order, but all are listed as children
+        List<AtomFlowNodeExt> children = busy.getStageFlowNodes();
+        Assert.assertEquals(StageNodeExt.MAX_CHILD_NODES, children.size());
+        for (int i = 1; i < children.size(); i++) {
+            Assert.assertTrue(Integer.parseInt(children.get(i - 1).getId()) < Integer.parseInt(children.get(i).getId()));
+        }
+        Assert.assertEquals("step 0", children.get(0).getParameterDescription());
+        Assert.assertTrue(busy.getAllChildNodeIds().size() >= steps);
+
+        Assert.assertEquals(1, runExt.getStages().get(1).getStageFlowNodes().size());
+    }
+
+    @Test
+    public void singleStageScanTest() throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "StagesJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') {\n" +
+                "  echo 'building'\n" +
+                "}\n" +
+                "stage ('Test') {\n" +
+                "  parallel a: { stage ('Nested') { echo 'nested' } }, b: { echo 'other' }\n" +
+                "}\n" +
+                "stage ('Deploy') {\n" +
+                "  echo 'deploying'\n" +
+                "}"
+        ));
+        WorkflowRun build = jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        FlowExecution execution = build.getExecution();
+
+        // Top-level stages come out the same as from digesting the whole run
+        RunExt runExt = RunExt.createNew(build);
+        for (StageNodeExt expected : runExt.getStages()) {
+            if ("Nested".equals(expected.getName())) {
+                continue;
+            }
+            StageNodeExt stage = SingleStageScanner.scan(build, execution.getNode(expected.getId()));
+            Assert.assertNotNull(stage);
+            Assert.assertEquals(expected.getId(), stage.getId());
+            Assert.assertEquals(expected.getName(), stage.getName());
+            Assert.assertEquals(expected.getStatus(), stage.getStatus());
+            Assert.assertEquals(expected.getStartTimeMillis(), stage.getStartTimeMillis());
+            Assert.assertEquals(expected.getDurationMillis(), stage.getDurationMillis());
+            Assert.assertEquals(expected.getStageFlowNodes().size(), stage.getStageFlowNodes().size());
+            Assert.assertEquals(expected.getAllChildNodeIds(), stage.getAllChildNodeIds());
+        }
+
+        // Stages in a parallel need the whole run
+        FlowNode nested = null;
+        for (FlowNode node : new DepthFirstScanner().allNodes(execution)) {
+            if ("Nested".equals(node.getDisplayName()) && StageNodeExt.isStageNode(node)) {
+                nested = node;
+            }
+        }
+        Assert.assertNotNull(nested);
+        Assert.assertNull(SingleStageScanner.scan(build, nested));
+    }
+
+    @Test
+    public void statusAndTimingMatchApiTest() throws Exception {
+        // A parallel with one branch paused while the other is done
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, "PausedParallelJob");
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Test') {\n" +
+                "  parallel a: { input 'Proceed?' }, b: { echo 'other' }\n" +
+                "}"
+        ));
+        job.scheduleBuild2(0);
+        Util.waitForBuildCount(job, 1);
+        WorkflowRun running = job.getFirstBuild();
+        Util.waitForBuildPendingInput(running);
+        Assert.assertTrue(running.getExecution().getCurrentHeads().size() > 1);
+        assertMatchesApi(running);
+        running.doStop();
+
+        WorkflowJob failing = jenkinsRule.jenkins.createProject(WorkflowJob.class, "FailingJob");
+        failing.setDefinition(new CpsFlowDefinition("" +
+                "stage ('Build') {\n" +
+                "  echo 'building'\n" +
+                "  error 'broken'\n" +
+                "}"
+        ));
+        assertMatchesApi(jenkinsRule.assertBuildStatus(Result.FAILURE, failing.scheduleBuild2(0).get()));
+    }
+
+    /**
+     * Every node as a chunk of its own, followed by each of its children, by nothing, and if it is a current head by
+     * each other head (as the node after a branch can be in another branch), must come out as the API computes it.
+     */
+    private static void assertMatchesApi(WorkflowRun run) {
+        FlowExecution execution = run.getExecution();
+        List<FlowNode> heads = execution.getCurrentHeads();
+        Map<FlowNode, List<FlowNode>> children = new HashMap<FlowNode, List<FlowNode>>();
+        List<FlowNode> nodes = new DepthFirstScanner().allNodes(execution);
+        for (FlowNode node : nodes) {
+            for (FlowNode parent : node.getParents()) {
+                if (!children.containsKey(parent)) {
+                    children.put(parent, new ArrayList<FlowNode>());
+                }
+                children.get(parent).add(node);
+            }
+        }
+
+        ChunkVisitor visitor = new ChunkVisitor(run);
+        for (FlowNode node : nodes) {
+            FlowNode before = node.getParents().isEmpty() ? null : node.getParents().get(0);
+            List<FlowNode> afters = new ArrayList<FlowNode>();
+            afters.add(null);
+            if (children.containsKey(node)) {
+                afters.addAll(children.get(node));
+            }
+            if (heads.contains(node)) {
+                for (FlowNode head : heads) {
+                    if (head != node) {
+                        afters.add(head);
+                    }
+                }
+            }
+            for (FlowNode after : afters) {
+                String pair = node.getId() + " -> " + (after == null ? null : after.getId());
+                long pause = visitor.nodeStates.getPause(node);
+
+                TimingInfo expected = StatusAndTiming.computeChunkTiming(run, pause, node, node, after);
+                TimingInfo actual = visitor.computeTiming(pause, node, node, after);
+                if (expected == null) {
+                    Assert.assertNull(pair, actual);
+                } else {
+                    Assert.assertNotNull(pair, actual);
+                    Assert.assertEquals(pair, expected.getStartTimeMillis(), actual.getStartTimeMillis());
+                    // Running chunks last until now, which moves between the two calls
+                    Assert.assertEquals(pair, expected.getTotalDurationMillis(), actual.getTotalDurationMillis(), 1000);
+                    Assert.assertEquals(pair, expected.getPauseDurationMillis(), actual.getPauseDurationMillis(), 1000);
+                }
+
+                GenericStatus expectedStatus = StatusAndTiming.computeChunkStatus(run, before, node, node, after);
+                Assert.assertEquals(pair, expectedStatus, visitor.computeAtomStatus(before, node, after));
+            }
+        }
+    }
+}
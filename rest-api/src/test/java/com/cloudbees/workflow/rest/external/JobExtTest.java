@@ -0,0 +1,154 @@
+/*
+ * The MIT License
+ *
+ * Copyright (c) 2016, CloudBees, Inc.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package com.cloudbees.workflow.rest.external;
+
+import com.cloudbees.workflow.flownode.FlowNodeUtil;
+import com.cloudbees.workflow.flownode.RunExtSingleFlight;
+import org.jenkinsci.plugins.workflow.cps.CpsFlowDefinition;
+import org.jenkinsci.plugins.workflow.job.WorkflowJob;
+import org.jenkinsci.plugins.workflow.job.WorkflowRun;
+import org.junit.Assert;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.jvnet.hudson.test.JenkinsRule;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+
+/**
+ * Tests the pages of runs computed side by side
+ */
+public class JobExtTest {
+
+    @Rule
+    public JenkinsRule jenkinsRule = new JenkinsRule();
+
+    @Test
+    public void pageOrderTest() throws Exception {
+        List<WorkflowRun> runs = buildRuns("OrderedJob", 4);
+
+        // Newest first, as listed, however long each one takes
+        assertIds(runs, JobExt.createPage(runs, false));
+        assertIds(runs, JobExt.createPage(runs, true));
+        Assert.assertFalse(JobExt.isPartial(JobExt.createPage(runs, false)));
+
+        final List<RunExt> streamed = new ArrayList<RunExt>();
+        Assert.assertTrue(JobExt.createPage(runs, false, new JobExt.RunSink() {
+            @Override
+            public void accept(RunExt run) {
+                streamed.add(run);
+            }
+        }));
+        assertIds(runs, streamed);
+    }
+
+    @Test
+    public void sinceTest() throws Exception {
+        List<WorkflowRun> runs = buildRuns("SinceJob", 4);
+
+        // Up to and including the run named
+        assertIds(runs.subList(0, 3), JobExt.create(runs, runs.get(2).getDisplayName(), false));
+        assertIds(runs.subList(0, 3), JobExt.create(runs, " " + runs.get(2).getDisplayName() + " ", false));
+        assertIds(runs.subList(0, 1), JobExt.create(runs, runs.get(0).getDisplayName(), false));
+
+        // Else all of them, up to MAX_RUNS_PER_JOB + 1
+        assertIds(runs, JobExt.create(runs, "", false));
+        assertIds(runs, JobExt.create(runs, "#100", false));
+        Assert.assertTrue(runs.size() <= JobExt.MAX_RUNS_PER_JOB);
+    }
+
+    @Test
+    public void timeLimitTest() throws Exception {
+        Assume.assumeTrue("Runs are only computed side by side with several threads", JobExt.THREADS > 1);
+        final List<WorkflowRun> runs = buildRuns("SlowJob", 3);
+
+        // The second run takes as long as we want
+        final WorkflowRun slow = runs.get(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        FlowNodeUtil.CacheExtension.all().get(0).getRunCache().invalidate(slow.getExternalizableId());
+        Thread blocker = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                RunExtSingleFlight.compute(slow.getExternalizableId(), new Callable<RunExt>() {
+                    @Override
+                    public RunExt call() throws Exception {
+                        release.await();
+                        return RunExt.createNew(slow);
+                    }
+                });
+            }
+        });
+        blocker.start();
+        try {
+            for (int i = 0; i < 100 && RunExtSingleFlight.getInFlightCount() == 0; i++) {
+                Thread.sleep(100);
+            }
+
+            // Only the runs before the slow one come back
+            final List<RunExt> streamed = new ArrayList<RunExt>();
+            Assert.assertFalse(JobExt.createPage(runs, false, new JobExt.RunSink() {
+                @Override
+                public void accept(RunExt run) {
+                    streamed.add(run);
+                }
+            }, 2000));
+            assertIds(runs.subList(0, 1), streamed);
+        } finally {
+            release.countDown();
+            blocker.join();
+        }
+
+        // And once it is done, the whole page
+        Assert.assertFalse(JobExt.isPartial(JobExt.createPage(runs, false)));
+    }
+
+    /** Completed runs, newest first, once they are cached like any run finished a while ago */
+    private List<WorkflowRun> buildRuns(String name, int count) throws Exception {
+        WorkflowJob job = jenkinsRule.jenkins.createProject(WorkflowJob.class, name);
+        job.setDefinition(new CpsFlowDefinition("" +
+                "stage 'first' \n" +
+                "echo 'done'"
+        ));
+        for (int i = 0; i < count; i++) {
+            jenkinsRule.assertBuildStatusSuccess(job.scheduleBuild2(0));
+        }
+        List<WorkflowRun> runs = new ArrayList<WorkflowRun>(job.getBuilds());
+        for (WorkflowRun run : runs) {
+            for (int i = 0; i < 100 && FlowNodeUtil.peekCachedRun(run) == null; i++) {
+                Thread.sleep(100);
+            }
+        }
+        return runs;
+    }
+
+    private static void assertIds(List<WorkflowRun> expected, List<RunExt> actual) {
+        Assert.assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            Assert.assertEquals(expected.get(i).getId(), actual.get(i).getId());
+        }
+    }
+}
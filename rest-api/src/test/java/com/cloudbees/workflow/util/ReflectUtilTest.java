@@ -4,7 +4,10 @@ import org.junit.Test;
 
 import java.lang.reflect.Field;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 /**
  * @author chi
@@ -14,6 +17,24 @@ public class ReflectUtilTest {
     public void field() {
         Field name = ReflectUtil.field(B.class, "name");
         assertNotNull(name);
+        // Resolved once
+        assertSame(name, ReflectUtil.field(B.class, "name"));
+        assertNull(ReflectUtil.field(B.class, "missing"));
+        assertNull(ReflectUtil.field(B.class, "missing"));
+    }
+
+    @Test
+    public void get() throws Exception {
+        B b = new B();
+        b.name = "inherited";
+        assertEquals("inherited", ReflectUtil.get(b, "name"));
+        assertEquals(42, ReflectUtil.get(b, "secret"));
+        assertEquals("shared", ReflectUtil.get(b, "SHARED"));
+    }
+
+    @Test(expected = NoSuchFieldException.class)
+    public void getMissing() throws Exception {
+        ReflectUtil.get(new B(), "missing");
     }
 
     static class A {
@@ -21,6 +42,7 @@ public class ReflectUtilTest {
     }
 
     static class B extends A {
-
+        private static String SHARED = "shared";
+        private int secret = 42;
     }
-}
\ No newline at end of file
+}